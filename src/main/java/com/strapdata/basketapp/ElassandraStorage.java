@@ -3,29 +3,44 @@ package com.strapdata.basketapp;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.extras.codecs.enums.EnumNameCodec;
 import com.datastax.driver.mapping.Mapper;
 import com.datastax.driver.mapping.MappingManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.strapdata.basketapp.config.ElasticsearchConfiguration;
+import com.strapdata.basketapp.config.ElasticsearchIndexConfiguration;
+import com.strapdata.basketapp.config.RetentionConfiguration;
+import com.strapdata.basketapp.config.StorageConfiguration;
 import com.strapdata.basketapp.model.Basket;
 import com.strapdata.basketapp.model.BasketStatus;
 import com.strapdata.basketapp.utils.DateTimeCodec;
 import com.strapdata.basketapp.utils.ElassandraSecurity;
+import com.strapdata.basketapp.utils.ElasticsearchMapping;
 import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Context;
 import io.micronaut.context.annotation.Factory;
 import io.micronaut.context.env.Environment;
+import io.micronaut.scheduling.annotation.Scheduled;
+import io.reactivex.schedulers.Schedulers;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.entity.NStringEntity;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
@@ -39,32 +54,66 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Context
 public class ElassandraStorage {
     private static final Logger logger = LoggerFactory.getLogger(ElassandraStorage.class);
 
     public static final String KEYSPACE = "baskets";
+    public static final String TABLE = "baskets";   // the Elasticsearch type name is the table name
+    public static final String INDEX_ALIAS = "baskets";   // searched alias, pointing to the current baskets_v<n> index
+
+    // attempts to restore the refresh settings at the end of a bulk load
+    static final int BULK_RESTORE_ATTEMPTS = 5;
+
+    static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    // Elassandra partition function routing a basket to the index of its processing month
+    static final String MONTHLY_PARTITION_FUNCTION = INDEX_ALIAS + "_by_month " + INDEX_ALIAS + "_{0,date,yyyy_MM} processing_date";
 
     ElasticsearchConfiguration esConfig;
+    ElasticsearchIndexConfiguration indexConfig;
+    StorageConfiguration storageConfig;
+    RetentionConfiguration retentionConfig;
+    RestHighLevelClient esClient;
     Cluster cluster;
     Session session;
     MappingManager mappingManager;
     AtomicBoolean opened = new AtomicBoolean(false);
     AtomicBoolean initialized = new AtomicBoolean(false);
+    // running bulk loads of this pod, and whether the index is in bulk load mode, guarded by this
+    int bulkLoads = 0;
+    boolean bulkMode = false;
+    // time (ms) when documents written before became searchable, in the future while in bulk load mode
+    volatile long searchableSince = 0;
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private final ConcurrentMap<Class, Mapper> mappers = new ConcurrentHashMap<>();
 
-    public ElassandraStorage(Environment env, Cluster cluster, ElasticsearchConfiguration elasticsearchConfig) {
+    public ElassandraStorage(Environment env, Cluster cluster, ElasticsearchConfiguration elasticsearchConfig,
+                             ElasticsearchIndexConfiguration indexConfig, StorageConfiguration storageConfig,
+                             RetentionConfiguration retentionConfig) {
         this.cluster = cluster;
         this.esConfig = elasticsearchConfig;
+        this.indexConfig = indexConfig;
+        this.storageConfig = storageConfig;
+        this.retentionConfig = retentionConfig;
 
         // register codec
         CodecRegistry codecRegistry = cluster.getConfiguration().getCodecRegistry();
@@ -80,8 +129,9 @@ public class ElassandraStorage {
         if (opened.compareAndSet(false, true)) {
             session = cluster.connect();
             session.execute(String.format(Locale.ROOT,
-                "CREATE KEYSPACE IF NOT EXISTS %s WITH replication={'class' : 'NetworkTopologyStrategy', '%s':'1'} AND durable_writes = false",
-                KEYSPACE, session.getCluster().getMetadata().getAllHosts().iterator().next().getDatacenter()));
+                "CREATE KEYSPACE IF NOT EXISTS %s WITH replication=%s AND durable_writes = %b",
+                KEYSPACE, replication(), storageConfig.durableWrites));
+            alterKeyspace();
             session.execute(String.format(Locale.ROOT, "USE %s", KEYSPACE));
             mappingManager = new MappingManager(session);
             logger.info("Elassandra storage session opened");
@@ -89,11 +139,69 @@ public class ElassandraStorage {
         init();
     }
 
+    // apply the configured settings to an existing keyspace, replication only when explicitly configured
+    // so that a manually tuned keyspace is not reset to the default
+    void alterKeyspace() {
+        KeyspaceMetadata keyspace = session.getCluster().getMetadata().getKeyspace(KEYSPACE);
+        if (keyspace == null)
+            return;
+        if (storageConfig.replication != null && !storageConfig.replication.isEmpty() && !replicationMatches(keyspace.getReplication())) {
+            session.execute(String.format(Locale.ROOT,
+                "ALTER KEYSPACE %s WITH replication=%s AND durable_writes = %b",
+                KEYSPACE, replication(), storageConfig.durableWrites));
+            logger.warn("Keyspace {} replication changed to {}, run a full repair", KEYSPACE, replication());
+        } else if (keyspace.isDurableWrites() != storageConfig.durableWrites) {
+            session.execute(String.format(Locale.ROOT,
+                "ALTER KEYSPACE %s WITH durable_writes = %b", KEYSPACE, storageConfig.durableWrites));
+            logger.info("Keyspace {} durable_writes={}", KEYSPACE, storageConfig.durableWrites);
+        }
+    }
+
+    boolean replicationMatches(Map<String, String> current) {
+        if (!current.getOrDefault("class", "").endsWith("NetworkTopologyStrategy"))
+            return false;
+        int datacenters = 0;
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (entry.getKey().equals("class"))
+                continue;
+            datacenters++;
+            if (!entry.getValue().equals(String.valueOf(storageConfig.replication.get(entry.getKey()))))
+                return false;
+        }
+        return datacenters == storageConfig.replication.size();
+    }
+
+    // keyspace replication map from the configured topology
+    String replication() {
+        Map<String, Integer> replication = storageConfig.replication;
+        if (replication == null || replication.isEmpty())
+            replication = Collections.singletonMap(session.getCluster().getMetadata().getAllHosts().iterator().next().getDatacenter(), 1);
+        StringBuilder sb = new StringBuilder("{'class' : 'NetworkTopologyStrategy'");
+        for (Map.Entry<String, Integer> entry : replication.entrySet())
+            sb.append(", '").append(entry.getKey()).append("':'").append(entry.getValue()).append("'");
+        return sb.append("}").toString();
+    }
+
+    /**
+     * Execute a statement at the provided consistency level.
+     * @param statement
+     * @param consistencyLevel
+     * @return
+     */
+    public ResultSetFuture executeAsync(Statement statement, ConsistencyLevel consistencyLevel) {
+        return session.executeAsync(statement.setConsistencyLevel(consistencyLevel));
+    }
+
+    public StorageConfiguration getStorageConfiguration() {
+        return storageConfig;
+    }
+
     // init CQL schema, Elasticsearch indices and data
     public void init() {
         if (initialized.compareAndSet(false, true)) {
             try {
                 initSchema();
+                initRetention();
                 initElasticsearch();
                 initModel();
                 logger.info("Elassandra storage initialized");
@@ -122,10 +230,22 @@ public class ElassandraStorage {
             session.close();
             mappingManager = null;
             session = null;
+            closeElasticsearchClient();
             logger.info("Elassandra storage closed");
         }
     }
 
+    synchronized void closeElasticsearchClient() {
+        if (esClient != null) {
+            try {
+                esClient.close();
+            } catch (IOException e) {
+                logger.warn("error closing elasticsearch client:", e);
+            }
+            esClient = null;
+        }
+    }
+
     public Session getSession() {
         return session;
     }
@@ -163,55 +283,373 @@ public class ElassandraStorage {
         logger.info("CQL schema sucessfully initialized");
     }
 
+    // Elasticsearch REST client, built on first use and closed with the storage.
+    public synchronized RestHighLevelClient getElasticsearchClient() {
+        if (esClient == null) {
+            ElassandraSecurity elassandraSecurity = new ElassandraSecurity();
+            esClient = new RestHighLevelClient(
+                RestClient.builder(new HttpHost(esConfig.host, esConfig.port, esConfig.scheme))
+                    .setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
+                        @Override
+                        public HttpAsyncClientBuilder customizeHttpClient(
+                                HttpAsyncClientBuilder httpClientBuilder) {
+                            if (elassandraSecurity.getUsername().isPresent() && elassandraSecurity.getPassword().isPresent()) {
+                                final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                                credentialsProvider.setCredentials(AuthScope.ANY,
+                                        new UsernamePasswordCredentials(elassandraSecurity.getUsername().get(), elassandraSecurity.getPassword().get()));
+                                httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+                            }
+
+                            if (elassandraSecurity.getSSLContextOption().isPresent()) {
+                                httpClientBuilder.setSSLContext(elassandraSecurity.getSSLContextOption().get());
+                                // TODO: fix this workaround
+                                httpClientBuilder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+                            }
+                            return httpClientBuilder;
+                        }
+                    }));
+        }
+        return esClient;
+    }
+
     // Create ES indices
     public void initElasticsearch() throws IOException {
         logger.info("Init Elasticsearch {}://{}:{}", esConfig.scheme, esConfig.host, esConfig.port);
-        RestClientBuilder clientBuilder = RestClient.builder(new HttpHost(esConfig.host, esConfig.port, esConfig.scheme));
 
-        String index = KEYSPACE; // By default, index name is keyspace name
+        if (isMonthlyIndices()) {
+            maintainMonthlyIndices();
+            tryUpdateMapping();
+            return;
+        }
+        if (indexExists(INDEX_ALIAS)) {
+            logger.info("Elasticsearch index {} already exists", INDEX_ALIAS);
+            // index fields added to the model since the index creation, documents written before are not reindexed
+            tryUpdateMapping();
+            return;
+        }
+        String index = indexName(1);
+        createIndex(index);
+        switchAlias(null, index);
+    }
 
-        ElassandraSecurity elassandraSecurity = new ElassandraSecurity();
-        try(RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost(esConfig.host, esConfig.port, esConfig.scheme))
-                        .setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
-                            @Override
-                            public HttpAsyncClientBuilder customizeHttpClient(
-                                    HttpAsyncClientBuilder httpClientBuilder) {
-                                if (elassandraSecurity.getUsername().isPresent() && elassandraSecurity.getPassword().isPresent()) {
-                                    final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-                                    credentialsProvider.setCredentials(AuthScope.ANY,
-                                            new UsernamePasswordCredentials(elassandraSecurity.getUsername().get(), elassandraSecurity.getPassword().get()));
-                                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-                                }
-
-                                if (elassandraSecurity.getSSLContextOption().isPresent()) {
-                                    httpClientBuilder.setSSLContext(elassandraSecurity.getSSLContextOption().get());
-                                    // TODO: fix this workaround
-                                    httpClientBuilder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
-                                }
-                                return httpClientBuilder;
-                            }
-                        }))
-        ) {
-            CreateIndexRequest request = new CreateIndexRequest(KEYSPACE);
-            XContentBuilder mappingBuilder = XContentFactory.jsonBuilder();
-            mappingBuilder.startObject();
-            {
-                mappingBuilder.startObject(index);
-                {
-                    mappingBuilder.field("discover", ".*");
+    public boolean isMonthlyIndices() {
+        return retentionConfig.monthlyIndices && !retentionConfig.ttl.isZero();
+    }
+
+    /**
+     * Create the monthly indices of the retention period and of the next month behind the search alias,
+     * and delete older ones. Elassandra routes each basket to the index of its processing month.
+     * Deleting an index does not delete the Cassandra rows, they expire with their TTL.
+     * @throws IOException
+     */
+    @Scheduled(fixedDelay = "1h", initialDelay = "1h")
+    public void maintainMonthlyIndices() throws IOException {
+        if (!isMonthlyIndices() || session == null)
+            return;
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        YearMonth oldest = YearMonth.from(LocalDate.now(ZoneOffset.UTC).minusDays(retentionConfig.ttl.toDays()));
+        for (YearMonth month = oldest; !month.isAfter(current.plusMonths(1)); month = month.plusMonths(1)) {
+            String index = monthlyIndexName(month);
+            if (!indexExists(index)) {
+                createIndex(index, MONTHLY_PARTITION_FUNCTION);
+                switchAlias(null, index);
+            }
+        }
+        Response response = getElasticsearchClient().getLowLevelClient().performRequest("GET", "/_alias/" + INDEX_ALIAS);
+        try (InputStream is = response.getEntity().getContent()) {
+            for (Iterator<String> indices = JSON_MAPPER.readTree(is).fieldNames(); indices.hasNext(); ) {
+                String index = indices.next();
+                Matcher matcher = MONTHLY_INDEX.matcher(index);
+                if (matcher.matches()) {
+                    if (YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))).isBefore(oldest))
+                        deleteIndex(index);
+                } else if (VERSIONED_INDEX.matcher(index).matches()) {
+                    // a versioned index from before monthly indices would return every basket twice, and would keep
+                    // indexing every write. Deleting an Elassandra index keeps the Cassandra data.
+                    deleteIndex(index);
+                    logger.warn("Elasticsearch index {} deleted, rewrite existing baskets to index them in monthly indices", index);
+                } else {
+                    removeAlias(index);
+                    logger.warn("Elasticsearch index {} removed from alias {}, delete it to stop indexing baskets in it", index, INDEX_ALIAS);
                 }
-                mappingBuilder.endObject();
+            }
+        }
+    }
+
+    static final Pattern MONTHLY_INDEX = Pattern.compile(Pattern.quote(INDEX_ALIAS) + "_(\\d{4})_(\\d{2})");
+    static final Pattern VERSIONED_INDEX = Pattern.compile(Pattern.quote(INDEX_ALIAS) + "_v\\d+");
+
+    static String monthlyIndexName(YearMonth month) {
+        return String.format(Locale.ROOT, "%s_%04d_%02d", INDEX_ALIAS, month.getYear(), month.getMonthValue());
+    }
+
+    // Cassandra table options for time series baskets, checked at every startup so that disabling them reverts the table.
+    // Only changed options are altered, so that restarting pods do not issue schema changes.
+    void initRetention() {
+        TableMetadata table = cluster.getMetadata().getKeyspace(KEYSPACE).getTable(TABLE);
+        if (table == null)
+            return;
+        List<String> options = new ArrayList<>();
+        if (table.getOptions().getDefaultTimeToLive() != retentionConfig.ttl.getSeconds())
+            options.add("default_time_to_live = " + retentionConfig.ttl.getSeconds());
+        Map<String, String> compaction = table.getOptions().getCompaction();
+        boolean twcs = compaction.get("class") != null && compaction.get("class").endsWith("TimeWindowCompactionStrategy");
+        if (retentionConfig.timeWindowCompaction) {
+            if (!twcs || !"DAYS".equals(compaction.get("compaction_window_unit")) ||
+                !Integer.toString(retentionConfig.compactionWindowDays).equals(compaction.get("compaction_window_size"))) {
+                options.add(String.format(Locale.ROOT,
+                    "compaction = {'class':'TimeWindowCompactionStrategy', 'compaction_window_unit':'DAYS', 'compaction_window_size':'%d'}",
+                    retentionConfig.compactionWindowDays));
+            }
+        } else if (twcs) {
+            // only revert TWCS, a compaction strategy set by an operator is kept
+            options.add("compaction = {'class':'SizeTieredCompactionStrategy'}");
+        }
+        if (options.isEmpty())
+            return;
+        String alter = String.format(Locale.ROOT, "ALTER TABLE %s WITH %s", TABLE, String.join(" AND ", options));
+        logger.info(alter);
+        session.execute(alter);
+    }
+
+    /**
+     * @param processingDate
+     * @return true if a basket processed at this date is already past the retention period
+     */
+    public boolean isExpired(Date processingDate) {
+        long ttl = retentionConfig.ttl.getSeconds();
+        return ttl > 0 && processingDate != null && System.currentTimeMillis() - processingDate.getTime() >= ttl * 1000;
+    }
+
+    /**
+     * @param processingDate
+     * @return the TTL in seconds of a basket, counted from its processing date, or 0 if baskets do not expire.
+     * Expired baskets ({@link #isExpired(Date)}) must not be written.
+     */
+    public int ttl(Date processingDate) {
+        long ttl = retentionConfig.ttl.getSeconds();
+        if (ttl == 0)
+            return 0;
+        if (processingDate != null)
+            ttl -= (System.currentTimeMillis() - processingDate.getTime()) / 1000;
+        return (int) Math.max(1, Math.min(ttl, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Create a version of the baskets index.
+     * @param index
+     * @throws IOException
+     */
+    public void createIndex(String index) throws IOException {
+        createIndex(index, null);
+    }
+
+    void createIndex(String index, String partitionFunction) throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(index);
+        request.mapping(TABLE, mapping());
+        Settings settings = indexSettings();
+        if (partitionFunction != null)
+            settings = Settings.builder().put(settings).put("index.partition_function", partitionFunction).build();
+        request.settings(settings);
+        CreateIndexResponse createIndexResponse = getElasticsearchClient().indices().create(request);
+        logger.info("Elasticsearch index {} created", index);
+    }
+
+    /**
+     * Add fields of the model missing in the indices behind the search alias, existing fields are unchanged.
+     * @throws IOException
+     */
+    public void updateMapping() throws IOException {
+        getElasticsearchClient().getLowLevelClient().performRequest("PUT", "/" + INDEX_ALIAS + "/_mapping/" + TABLE,
+            Collections.emptyMap(), new NStringEntity(mapping().string(), ContentType.APPLICATION_JSON));
+    }
+
+    // a rejected mapping update (e.g. a field type conflict) must not prevent the startup, searches on new fields fail until reindexed
+    void tryUpdateMapping() {
+        try {
+            updateMapping();
+        } catch (IOException e) {
+            logger.error("Failed to update the mapping of " + INDEX_ALIAS + ", reindex to index new fields", e);
+        }
+    }
+
+    XContentBuilder mapping() throws IOException {
+        XContentBuilder mappingBuilder = XContentFactory.jsonBuilder();
+        mappingBuilder.startObject();
+        {
+            mappingBuilder.startObject(TABLE);
+            {
+                // explicit mapping generated from the model, unannotated columns are not indexed
+                ElasticsearchMapping.properties(mappingBuilder, Basket.class);
             }
             mappingBuilder.endObject();
-            request.mapping(index, mappingBuilder);
-            request.settings(Settings.builder()
-                .put("keyspace", session.getLoggedKeyspace())
-                .put("synchronous_refresh", true)   // for testing only
-                .build());
-            CreateIndexResponse createIndexResponse = client.indices().create(request);
-            logger.info("Elasticsearch index {} created", index);
         }
+        mappingBuilder.endObject();
+        return mappingBuilder;
+    }
+
+    public static String indexName(int version) {
+        return INDEX_ALIAS + "_v" + version;
+    }
+
+    public static int indexVersion(String index) {
+        return Integer.parseInt(index.substring(index.lastIndexOf("_v") + 2));
+    }
+
+    public boolean indexExists(String index) throws IOException {
+        return getElasticsearchClient().getLowLevelClient().performRequest("HEAD", "/" + index).getStatusLine().getStatusCode() == 200;
+    }
+
+    /**
+     * @return the index currently behind the search alias.
+     * @throws IOException
+     */
+    public String currentIndex() throws IOException {
+        Response response = getElasticsearchClient().getLowLevelClient().performRequest("GET", "/_alias/" + INDEX_ALIAS);
+        try (InputStream is = response.getEntity().getContent()) {
+            Iterator<String> indices = JSON_MAPPER.readTree(is).fieldNames();
+            if (!indices.hasNext())
+                throw new IOException("No index behind alias " + INDEX_ALIAS);
+            return indices.next();
+        }
+    }
+
+    /**
+     * Atomically move the search alias from an index to another.
+     * @param from the current index or null
+     * @param to
+     * @throws IOException
+     */
+    public void switchAlias(String from, String to) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        {
+            builder.startArray("actions");
+            if (from != null) {
+                builder.startObject().startObject("remove").field("index", from).field("alias", INDEX_ALIAS).endObject().endObject();
+            }
+            builder.startObject().startObject("add").field("index", to).field("alias", INDEX_ALIAS).endObject().endObject();
+            builder.endArray();
+        }
+        builder.endObject();
+        getElasticsearchClient().getLowLevelClient().performRequest("POST", "/_aliases",
+            Collections.emptyMap(), new NStringEntity(builder.string(), ContentType.APPLICATION_JSON));
+        logger.info("Elasticsearch alias {} switched from {} to {}", INDEX_ALIAS, from, to);
+    }
+
+    public void removeAlias(String index) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        {
+            builder.startArray("actions");
+            builder.startObject().startObject("remove").field("index", index).field("alias", INDEX_ALIAS).endObject().endObject();
+            builder.endArray();
+        }
+        builder.endObject();
+        getElasticsearchClient().getLowLevelClient().performRequest("POST", "/_aliases",
+            Collections.emptyMap(), new NStringEntity(builder.string(), ContentType.APPLICATION_JSON));
+        logger.info("Elasticsearch alias {} removed from {}", INDEX_ALIAS, index);
+    }
+
+    public void deleteIndex(String index) throws IOException {
+        getElasticsearchClient().getLowLevelClient().performRequest("DELETE", "/" + index);
+        logger.info("Elasticsearch index {} deleted", index);
+    }
+
+    // index settings from the environment configuration
+    Settings indexSettings() {
+        Settings.Builder settings = Settings.builder()
+            .put("keyspace", session.getLoggedKeyspace())
+            .put("synchronous_refresh", indexConfig.synchronousRefresh)
+            .put("index.refresh_interval", indexConfig.refreshInterval);
+        if (indexConfig.numberOfShards != null)
+            settings.put("index.number_of_shards", indexConfig.numberOfShards);
+        if (indexConfig.numberOfReplicas != null)
+            settings.put("index.number_of_replicas", indexConfig.numberOfReplicas);
+        if (indexConfig.translogDurability != null)
+            settings.put("index.translog.durability", indexConfig.translogDurability);
+        return settings.build();
+    }
+
+    /**
+     * Disable index refresh while bulk loading, calls may be nested by concurrent uploads.
+     * Settings updates are serialized with the reference count, so that a bulk load ending never restores
+     * the refresh while another one has started.
+     * The count is per pod while the settings apply to the whole index: a pod ending its last bulk load
+     * restores the refresh even if another pod is still uploading, which then runs with the normal refresh.
+     */
+    public synchronized void beginBulkLoad() throws IOException {
+        if (bulkLoads == 0 && !bulkMode) {
+            updateIndexSettings(indexConfig.bulkRefreshInterval, false);
+            bulkMode = true;
+            searchableSince = Long.MAX_VALUE;
+            logger.info("Elasticsearch index {} in bulk load mode", INDEX_ALIAS);
+        }
+        bulkLoads++;
+    }
+
+    /**
+     * End a bulk load. When the last one ends, the configured refresh settings are restored and loaded documents
+     * made searchable on the io scheduler, as this may be called from a driver callback.
+     */
+    public synchronized void endBulkLoad() {
+        if (bulkLoads > 0 && --bulkLoads == 0)
+            Schedulers.io().scheduleDirect(this::restoreRefresh);
+    }
+
+    /**
+     * @return the time (ms) when documents written before became searchable, Long.MAX_VALUE while in bulk load mode
+     */
+    public long searchableSince() {
+        return searchableSince;
+    }
+
+    void restoreRefresh() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                synchronized (this) {
+                    // a bulk load started meanwhile, the last one to end restores the refresh
+                    if (bulkLoads > 0 || !bulkMode)
+                        return;
+                    updateIndexSettings(indexConfig.refreshInterval, indexConfig.synchronousRefresh);
+                    getElasticsearchClient().getLowLevelClient().performRequest("POST", "/" + INDEX_ALIAS + "/_refresh");
+                    bulkMode = false;
+                    searchableSince = System.currentTimeMillis();
+                }
+                logger.info("Elasticsearch index {} refresh settings restored", INDEX_ALIAS);
+                return;
+            } catch (IOException e) {
+                if (attempt >= BULK_RESTORE_ATTEMPTS) {
+                    // still in bulk mode, the next bulk load ending retries
+                    logger.error("Failed to restore the refresh settings of " + INDEX_ALIAS +
+                        ", new documents are not searchable until the next upload ends or the index refresh_interval is reset", e);
+                    return;
+                }
+                logger.warn("Failed to restore the refresh settings of {}, attempt {}/{}: {}", INDEX_ALIAS, attempt, BULK_RESTORE_ATTEMPTS, e.toString());
+                try {
+                    Thread.sleep(attempt * 1000L);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    void updateIndexSettings(String refreshInterval, boolean synchronousRefresh) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        {
+            builder.startObject("index");
+            {
+                builder.field("refresh_interval", refreshInterval);
+                builder.field("synchronous_refresh", synchronousRefresh);
+            }
+            builder.endObject();
+        }
+        builder.endObject();
+        getElasticsearchClient().getLowLevelClient().performRequest("PUT", "/" + INDEX_ALIAS + "/_settings",
+            Collections.emptyMap(), new NStringEntity(builder.string(), ContentType.APPLICATION_JSON));
     }
 
     public void initModel() throws IOException {
@@ -0,0 +1,213 @@
+package com.strapdata.basketapp;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
+import com.google.common.util.concurrent.RateLimiter;
+import com.strapdata.basketapp.config.ReindexConfiguration;
+import com.strapdata.basketapp.utils.RxFutures;
+import io.reactivex.Completable;
+import io.reactivex.disposables.Disposable;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuild the baskets Elasticsearch index online:
+ * <ol>
+ *     <li>create the next index version with the current mapping and settings,</li>
+ *     <li>scan the baskets table by token range and rewrite one column of each row with its original write time,
+ *     so that Elassandra reindexes the row without overwriting newer writes,</li>
+ *     <li>atomically switch the search alias to the new index.</li>
+ * </ol>
+ * Search keeps being served by the previous index until the switch.
+ */
+@Singleton
+public class ReindexJob {
+    private static final Logger logger = LoggerFactory.getLogger(ReindexJob.class);
+
+    // regular columns rewritten to reindex a row, the first non-null one is used
+    static final String[] TOUCHED_COLUMNS = { "store_code", "basket_status", "processing_date", "total_paid" };
+    static final String COLUMNS;
+    static {
+        StringBuilder sb = new StringBuilder("id");
+        for (String column : TOUCHED_COLUMNS)
+            sb.append(", ").append(column).append(", writetime(").append(column).append("), ttl(").append(column).append(")");
+        COLUMNS = sb.toString();
+    }
+
+    public enum State { IDLE, RUNNING, DONE, FAILED }
+
+    @Data
+    public static class Status {
+        State state;
+        String fromIndex;
+        String toIndex;
+        double rateLimit;
+        int totalRanges;
+        int rangesDone;
+        long rowsDone;
+        Date startedAt;
+        Date endedAt;
+        String error;
+    }
+
+    final ElassandraStorage storage;
+    final TokenRangeScanner scanner;
+    final ReindexConfiguration config;
+
+    final AtomicInteger rangesDone = new AtomicInteger();
+    final AtomicLong rowsDone = new AtomicLong();
+    volatile Status status = new Status();
+    Disposable running;
+
+    public ReindexJob(ElassandraStorage storage, TokenRangeScanner scanner, ReindexConfiguration config) {
+        this.storage = storage;
+        this.scanner = scanner;
+        this.config = config;
+        this.status.state = State.IDLE;
+    }
+
+    /**
+     * Start a rebuild.
+     * @param rateLimit rows per second, or null for the configured rate
+     * @return the job status
+     * @throws IllegalArgumentException if the rate limit is not positive
+     * @throws IllegalStateException if a rebuild is already running
+     * @throws IOException
+     */
+    public synchronized Status start(Double rateLimit) throws IOException {
+        double rate = rateLimit != null ? rateLimit : config.rateLimit;
+        if (!(rate > 0))
+            throw new IllegalArgumentException("Reindex rate must be positive: " + rate);
+        if (status.state == State.RUNNING)
+            throw new IllegalStateException("Reindex from " + status.fromIndex + " to " + status.toIndex + " is running");
+        if (storage.isMonthlyIndices())
+            throw new IllegalStateException("Reindex of monthly indices is not supported");
+
+        // skip versions left by a rebuild interrupted before its cleanup (e.g. a restart)
+        String fromIndex = storage.currentIndex();
+        int version = ElassandraStorage.indexVersion(fromIndex) + 1;
+        while (storage.indexExists(ElassandraStorage.indexName(version)))
+            version++;
+        String toIndex = ElassandraStorage.indexName(version);
+        storage.createIndex(toIndex);
+
+        List<TokenRange> ranges = scanner.ranges();
+        Status newStatus = new Status();
+        newStatus.state = State.RUNNING;
+        newStatus.fromIndex = fromIndex;
+        newStatus.toIndex = toIndex;
+        newStatus.rateLimit = rate;
+        newStatus.totalRanges = ranges.size();
+        newStatus.startedAt = new Date();
+        rangesDone.set(0);
+        rowsDone.set(0);
+        status = newStatus;
+        logger.info("Reindex from {} to {} started, ranges={} rate={}/s", fromIndex, toIndex, ranges.size(), newStatus.rateLimit);
+
+        RateLimiter rateLimiter = RateLimiter.create(rate);
+        PreparedStatement[] touchStatements = new PreparedStatement[TOUCHED_COLUMNS.length];
+        for (int i = 0; i < TOUCHED_COLUMNS.length; i++)
+            touchStatements[i] = storage.getSession().prepare("UPDATE baskets USING TIMESTAMP ? AND TTL ? SET " + TOUCHED_COLUMNS[i] + " = ? WHERE id = ?");
+        // rows without any of these columns get a store_code tombstone older than any write
+        PreparedStatement touchEmpty = storage.getSession().prepare("UPDATE baskets USING TIMESTAMP 0 SET store_code = null WHERE id = ?");
+
+        running = scanner.scan(ranges, 0, i ->
+                scanner.scan(ElassandraStorage.TABLE, COLUMNS, ranges.get(i))
+                    .doOnNext(row -> rateLimiter.acquire())
+                    .flatMapCompletable(row -> touch(row, touchStatements, touchEmpty), false, config.writeConcurrency)
+                    .doOnComplete(rangesDone::incrementAndGet)
+                    .<Object>toFlowable())
+            .ignoreElements()
+            .andThen(Completable.fromAction(() -> {
+                storage.switchAlias(fromIndex, toIndex);
+                if (config.deletePrevious)
+                    storage.deleteIndex(fromIndex);
+            }))
+            .subscribe(
+                () -> end(newStatus, null),
+                e -> end(newStatus, e));
+        return status();
+    }
+
+    // rewrite a non-null column with its own value, write time and remaining TTL (0 when the cell does not expire),
+    // Elassandra reindexes the whole row.
+    Completable touch(Row row, PreparedStatement[] touchStatements, PreparedStatement touchEmpty) {
+        rowsDone.incrementAndGet();
+        for (int i = 0; i < TOUCHED_COLUMNS.length; i++) {
+            int column = 1 + 3 * i;
+            if (!row.isNull(column)) {
+                int ttl = row.isNull(column + 2) ? 0 : row.getInt(column + 2);
+                return RxFutures.completable(storage.getSession().executeAsync(
+                    touchStatements[i].bind(row.getLong(column + 1), ttl, row.getObject(column), row.getUUID("id"))));
+            }
+        }
+        return RxFutures.completable(storage.getSession().executeAsync(touchEmpty.bind(row.getUUID("id"))));
+    }
+
+    // called once per job, by the completion of the scan or by cancel(), whichever comes first
+    synchronized void end(Status jobStatus, Throwable error) {
+        if (jobStatus.state != State.RUNNING)
+            return;
+        jobStatus.rangesDone = rangesDone.get();
+        jobStatus.rowsDone = rowsDone.get();
+        jobStatus.endedAt = new Date();
+        if (error == null) {
+            jobStatus.state = State.DONE;
+            logger.info("Reindex from {} to {} done, rows={}", jobStatus.fromIndex, jobStatus.toIndex, jobStatus.rowsDone);
+        } else {
+            jobStatus.state = State.FAILED;
+            jobStatus.error = error.toString();
+            logger.error("Reindex from " + jobStatus.fromIndex + " to " + jobStatus.toIndex + " failed:", error);
+            deleteIncompleteIndex(jobStatus.toIndex);
+        }
+        if (jobStatus == status)
+            running = null;
+    }
+
+    // drop the index of a failed or cancelled rebuild, Elassandra would keep indexing every write into it
+    void deleteIncompleteIndex(String index) {
+        try {
+            if (!index.equals(storage.currentIndex()) && storage.indexExists(index)) {
+                storage.deleteIndex(index);
+                logger.info("Reindex index {} deleted", index);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to delete index " + index + ":", e);
+        }
+    }
+
+    /**
+     * Abort the running rebuild, the alias is left unchanged and the new index is deleted.
+     */
+    public synchronized Status cancel() {
+        if (running != null) {
+            running.dispose();
+            end(status, new InterruptedException("cancelled"));
+        }
+        return status();
+    }
+
+    public synchronized Status status() {
+        Status snapshot = new Status();
+        snapshot.state = status.state;
+        snapshot.fromIndex = status.fromIndex;
+        snapshot.toIndex = status.toIndex;
+        snapshot.rateLimit = status.rateLimit;
+        snapshot.totalRanges = status.totalRanges;
+        snapshot.rangesDone = status.state == State.RUNNING ? rangesDone.get() : status.rangesDone;
+        snapshot.rowsDone = status.state == State.RUNNING ? rowsDone.get() : status.rowsDone;
+        snapshot.startedAt = status.startedAt;
+        snapshot.endedAt = status.endedAt;
+        snapshot.error = status.error;
+        return snapshot;
+    }
+}
@@ -0,0 +1,284 @@
+package com.strapdata.basketapp;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TokenRange;
+import com.datastax.driver.core.exceptions.BusyConnectionException;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.strapdata.basketapp.config.RollupConfiguration;
+import com.strapdata.basketapp.model.Basket;
+import com.strapdata.basketapp.model.BasketAccessor;
+import com.strapdata.basketapp.model.BasketItem;
+import com.strapdata.basketapp.model.BasketStatus;
+import com.strapdata.basketapp.model.BasketView;
+import com.strapdata.basketapp.model.SalesRollupAccessor;
+import com.strapdata.basketapp.utils.RequestTracer;
+import com.strapdata.basketapp.utils.RxFutures;
+import io.micronaut.scheduling.annotation.Scheduled;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintain the sales_rollup counters of finished baskets.
+ * Ingested baskets are aggregated in memory by (store, day, product) and merged deltas are flushed periodically,
+ * with one counter update per key and interval.
+ * A basket is counted once, when it is first written as finished: the caller checks the stored basket with
+ * {@link #isNewSale(Basket, String)} before writing it. Later changes of a finished basket are only reflected by a rebuild.
+ * Counter updates are not idempotent: an update known not to be applied is retried with the next flush, while a timed out
+ * update, possibly applied, is logged and dropped, the rollups of its key being inconsistent until rebuilt.
+ * Buffered deltas are flushed on shutdown.
+ */
+@Singleton
+public class SalesRollups {
+    private static final Logger logger = LoggerFactory.getLogger(SalesRollups.class);
+
+    // max wait for a running flush or rebuild on shutdown
+    static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @EqualsAndHashCode
+    @ToString
+    @RequiredArgsConstructor
+    static class Key {
+        final String storeCode;
+        final String day;
+        final String productCode;
+    }
+
+    @ToString
+    @RequiredArgsConstructor
+    static class Delta {
+        final long basketCount;
+        final long quantity;
+        final long amountCents;
+
+        Delta plus(Delta other) {
+            return new Delta(basketCount + other.basketCount, quantity + other.quantity, amountCents + other.amountCents);
+        }
+    }
+
+    final ElassandraStorage storage;
+    final TokenRangeScanner scanner;
+    final RollupConfiguration config;
+    final RequestTracer tracer;
+    final ConcurrentMap<Key, Delta> buffer = new ConcurrentHashMap<>();
+    final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    // held by a flush, and by a rebuild from the truncate to its final flush
+    final Semaphore flushLock = new Semaphore(1);
+    SalesRollupAccessor accessor;
+    BasketAccessor basketAccessor;
+
+    public SalesRollups(ElassandraStorage storage, TokenRangeScanner scanner, RollupConfiguration config, RequestTracer tracer) {
+        this.storage = storage;
+        this.scanner = scanner;
+        this.config = config;
+        this.tracer = tracer;
+    }
+
+    SalesRollupAccessor accessor() {
+        if (accessor == null)
+            accessor = storage.getMappingManager().createAccessor(SalesRollupAccessor.class);
+        return accessor;
+    }
+
+    BasketAccessor basketAccessor() {
+        if (basketAccessor == null)
+            basketAccessor = storage.getMappingManager().createAccessor(BasketAccessor.class);
+        return basketAccessor;
+    }
+
+    static String day(Date date) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+
+    static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    static boolean isSale(Basket basket) {
+        return basket.getBasketStatus() == BasketStatus.Finished &&
+            basket.getStoreCode() != null && basket.getProcessingDate() != null && basket.getItems() != null;
+    }
+
+    /**
+     * Check whether writing this basket makes a new sale, that is a finished basket whose stored version
+     * is missing or not finished. Must be called before the basket is written.
+     * Also used to count top products, so it does not depend on the rollups being enabled.
+     * @param basket
+     * @param traceId trace id of the writing request
+     * @return true if the basket must be counted once written
+     */
+    public Single<Boolean> isNewSale(Basket basket, @Nullable String traceId) {
+        if (!isSale(basket) || basket.getId() == null)
+            return Single.just(false);
+        return RxFutures.single(storage.executeAsync(tracer.tag(basketAccessor().getStatusById(basket.getId()), traceId),
+                storage.getStorageConfiguration().readConsistency))
+            .map(rs -> {
+                Row row = rs.one();
+                return row == null || !BasketStatus.Finished.name().equals(row.getString("basket_status"));
+            });
+    }
+
+    public boolean isEnabled() {
+        return config.enabled;
+    }
+
+    // merge the items of one basket by product, so that a product on several lines counts one basket
+    void add(String storeCode, String day, Map<String, Delta> products) {
+        for (Map.Entry<String, Delta> product : products.entrySet()) {
+            Delta delta = product.getValue();
+            buffer.merge(new Key(storeCode, day, product.getKey()), new Delta(1, delta.quantity, delta.amountCents), Delta::plus);
+        }
+    }
+
+    /**
+     * Account a written basket, only finished baskets are sales.
+     * @param basket
+     */
+    public void add(Basket basket) {
+        if (!config.enabled || !isSale(basket))
+            return;
+        Map<String, Delta> products = new HashMap<>();
+        for (BasketItem item : basket.getItems()) {
+            if (item.getProductCode() != null)
+                products.merge(item.getProductCode(), new Delta(0,
+                    item.getProductQuantity() == null ? 0 : item.getProductQuantity(),
+                    item.getAmountPaid() == null ? 0 : cents(item.getAmountPaid())), Delta::plus);
+        }
+        add(basket.getStoreCode(), day(basket.getProcessingDate()), products);
+    }
+
+    void add(BasketView view) {
+        if (!config.enabled || !BasketStatus.Finished.name().equals(view.getBasketStatus()) ||
+            view.getStoreCode() == null || view.getProcessingDate() == null)
+            return;
+        int[] quantities = view.quantities();
+        double[] amounts = view.amountsPaid();
+        Map<String, Delta> products = new HashMap<>();
+        for (int i = 0; i < view.itemCount(); i++) {
+            if (view.productCode(i) != null)
+                products.merge(view.productCode(i), new Delta(0, quantities[i], cents(amounts[i])), Delta::plus);
+        }
+        add(view.getStoreCode(), day(view.getProcessingDate()), products);
+    }
+
+    /**
+     * Write the buffered deltas, a key added during the flush is written by the next one.
+     */
+    @Scheduled(fixedDelay = "${basketapp.rollup.flush-interval:10s}")
+    public void flush() {
+        // skipped while a rebuild is running, the rebuild flushes when done
+        if (!flushLock.tryAcquire())
+            return;
+        try {
+            doFlush();
+        } finally {
+            flushLock.release();
+        }
+    }
+
+    void doFlush() {
+        if (buffer.isEmpty() || storage.getSession() == null)
+            return;
+        List<Key> keys = new ArrayList<>(buffer.keySet());
+        ConsistencyLevel consistency = storage.getStorageConfiguration().insertConsistency;
+        Flowable.fromIterable(keys)
+            .flatMapCompletable(key -> {
+                Delta delta = buffer.remove(key);
+                if (delta == null)
+                    return Completable.complete();
+                return RxFutures.completable(storage.executeAsync(tracer.tag(accessor().increment(delta.basketCount, delta.quantity, delta.amountCents,
+                        key.storeCode, key.day, key.productCode), null), consistency))
+                    .doOnError(e -> {
+                        if (isNotApplied(e)) {
+                            logger.warn("rollup update failed key={}, retrying with next flush: {}", key, e.toString());
+                            buffer.merge(key, delta, Delta::plus);
+                        } else {
+                            logger.error("rollup update failed key={} delta={}, possibly applied and not retried, rebuild if inconsistent: {}",
+                                key, delta, e.toString());
+                        }
+                    })
+                    .onErrorComplete();
+            }, false, config.flushConcurrency)
+            .blockingAwait();
+        logger.debug("rollups flushed keys={}", keys.size());
+    }
+
+    // the coordinator was not reached or refused the update, a timeout may hide an applied counter update
+    static boolean isNotApplied(Throwable e) {
+        return e instanceof UnavailableException || e instanceof NoHostAvailableException ||
+            e instanceof BusyPoolException || e instanceof BusyConnectionException;
+    }
+
+    /**
+     * Flush the buffered deltas on shutdown, once a running flush or rebuild is done.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (!flushLock.tryAcquire(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warn("rollups not flushed on shutdown, buffered keys={} lost", buffer.size());
+            return;
+        }
+        try {
+            doFlush();
+        } finally {
+            flushLock.release();
+        }
+    }
+
+    /**
+     * Recompute the rollups from the baskets table. Baskets written during the rebuild may be counted twice.
+     * @return
+     * @throws IllegalStateException if a rebuild is running
+     */
+    public Completable rebuild() {
+        if (!rebuilding.compareAndSet(false, true))
+            throw new IllegalStateException("Rollup rebuild is running");
+        AtomicBoolean locked = new AtomicBoolean(false);
+        return Completable.fromAction(() -> {
+                // wait for a running flush, then keep scheduled flushes out until the rebuild is flushed
+                flushLock.acquire();
+                locked.set(true);
+                logger.info("Rebuilding sales rollups");
+                buffer.clear();
+                storage.getSession().execute("TRUNCATE sales_rollup");
+            })
+            .andThen(Flowable.defer(() -> {
+                    List<TokenRange> ranges = scanner.ranges();
+                    return scanner.scan(ranges, 0, i ->
+                        scanner.scan(ElassandraStorage.TABLE, BasketView.COLUMNS, ranges.get(i)).map(BasketView::fromRow));
+                })
+                .doOnNext(this::add)
+                .ignoreElements())
+            .andThen(Completable.fromAction(this::doFlush))
+            .doOnComplete(() -> logger.info("Sales rollups rebuilt"))
+            .doFinally(() -> {
+                if (locked.get())
+                    flushLock.release();
+                rebuilding.set(false);
+            });
+    }
+}
@@ -0,0 +1,143 @@
+package com.strapdata.basketapp;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+import com.strapdata.basketapp.config.ExportConfiguration;
+import com.strapdata.basketapp.utils.RequestTracer;
+import io.reactivex.Flowable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scan a table partitioned by id by token ranges of the ring, with paging and bounded parallelism.
+ */
+@Singleton
+public class TokenRangeScanner {
+    private static final Logger logger = LoggerFactory.getLogger(TokenRangeScanner.class);
+
+    final ElassandraStorage storage;
+    final ExportConfiguration config;
+    final RequestTracer tracer;
+
+    // prepared range queries by table, columns and range kind
+    final ConcurrentMap<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    public TokenRangeScanner(ElassandraStorage storage, ExportConfiguration config, RequestTracer tracer) {
+        this.storage = storage;
+        this.config = config;
+        this.tracer = tracer;
+    }
+
+    /**
+     * @return the token ranges of the ring, unwrapped, split and sorted, so that their index is a stable checkpoint.
+     */
+    public List<TokenRange> ranges() {
+        List<TokenRange> ranges = new ArrayList<>();
+        for (TokenRange range : storage.getSession().getCluster().getMetadata().getTokenRanges()) {
+            for (TokenRange unwrapped : range.unwrap()) {
+                if (config.splitsPerRange > 1)
+                    ranges.addAll(unwrapped.splitEvenly(config.splitsPerRange));
+                else
+                    ranges.add(unwrapped);
+            }
+        }
+        Collections.sort(ranges);
+        return ranges;
+    }
+
+    /**
+     * The ranges remaining after a token, independent of the topology and splits at the time the token was reached.
+     * @param fromToken exclusive lower bound, usually the end token of the last exported range, or null for all ranges
+     * @return the ranges ending after fromToken, the range containing it starting at it
+     * @throws IllegalArgumentException if fromToken is not a valid token of the partitioner
+     */
+    public List<TokenRange> ranges(@Nullable String fromToken) {
+        List<TokenRange> ranges = ranges();
+        if (fromToken == null)
+            return ranges;
+        Metadata metadata = storage.getSession().getCluster().getMetadata();
+        Token from = metadata.newToken(fromToken);
+        List<TokenRange> remaining = new ArrayList<>(ranges.size());
+        for (TokenRange range : ranges) {
+            if (!isEndOfRing(range) && range.getEnd().compareTo(from) <= 0)
+                continue;
+            remaining.add(range.getStart().compareTo(from) < 0 ? metadata.newTokenRange(from, range.getEnd()) : range);
+        }
+        return remaining;
+    }
+
+    // an unwrapped range ending before its start ends on the minimum token, at the end of the ring
+    static boolean isEndOfRing(TokenRange range) {
+        return range.getEnd().compareTo(range.getStart()) <= 0;
+    }
+
+    /**
+     * Scan the ranges from fromRange (included), at most concurrency ranges at a time.
+     * Elements are emitted in range order.
+     * @param ranges
+     * @param fromRange
+     * @param rangeScan the flowable of a range index, usually built from {@link #scan(String, String, TokenRange, String)}
+     * @return
+     */
+    public <T> Flowable<T> scan(List<TokenRange> ranges, int fromRange, Function<Integer, Publisher<T>> rangeScan) {
+        return Flowable.range(fromRange, Math.max(0, ranges.size() - fromRange))
+            .concatMapEager(rangeScan, config.concurrency, config.fetchSize);
+    }
+
+    /**
+     * Scan rows of a token range, fetching pages as the subscriber requests them.
+     * @param table
+     * @param columns
+     * @param range
+     * @return
+     */
+    public Flowable<Row> scan(String table, String columns, TokenRange range) {
+        return scan(table, columns, range, null);
+    }
+
+    /**
+     * Scan rows of a token range on behalf of a traced request.
+     * @param table
+     * @param columns
+     * @param range
+     * @param traceId trace id of the request, captured on the request thread as the scan runs on the io scheduler
+     * @return
+     */
+    public Flowable<Row> scan(String table, String columns, TokenRange range, @Nullable String traceId) {
+        return Flowable.defer(() -> {
+            boolean endOfRing = isEndOfRing(range);
+            BoundStatement statement = statement(table, columns, endOfRing).bind().setToken(0, range.getStart());
+            if (!endOfRing)
+                statement.setToken(1, range.getEnd());
+            statement.setFetchSize(config.fetchSize);
+            statement.setConsistencyLevel(storage.getStorageConfiguration().readConsistency);
+            logger.debug("scanning table={} range={}", table, range);
+            ResultSet rs = storage.getSession().execute(tracer.tag(statement, traceId));
+            return Flowable.fromIterable(rs);
+        }).subscribeOn(Schedulers.io());
+    }
+
+    PreparedStatement statement(String table, String columns, boolean endOfRing) {
+        String cql = endOfRing
+            ? String.format(Locale.ROOT, "SELECT %s FROM %s WHERE token(id) > ?", columns, table)
+            : String.format(Locale.ROOT, "SELECT %s FROM %s WHERE token(id) > ? AND token(id) <= ?", columns, table);
+        return statements.computeIfAbsent(cql, k -> storage.getSession().prepare(k));
+    }
+}
@@ -0,0 +1,203 @@
+package com.strapdata.basketapp;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.strapdata.basketapp.config.TopProductsConfiguration;
+import com.strapdata.basketapp.model.Basket;
+import com.strapdata.basketapp.model.BasketItem;
+import com.strapdata.basketapp.model.BasketStatus;
+import com.strapdata.basketapp.utils.CountMinSketch;
+import com.strapdata.basketapp.utils.SpaceSaving;
+import io.micronaut.context.event.ApplicationEventListener;
+import io.micronaut.runtime.server.event.ServerStartupEvent;
+import io.micronaut.scheduling.annotation.Scheduled;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Best selling products per store, by quantity, from the finished baskets written through this instance.
+ * Each store has a fixed size Count-Min sketch and Space-Saving summary whose counts decay periodically,
+ * and is snapshotted to the top_products_by_node table to warm up the instance when restarted.
+ * Each instance only writes and reloads its own snapshot, so that partial views are not mixed.
+ */
+@Singleton
+public class TopProducts implements ApplicationEventListener<ServerStartupEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(TopProducts.class);
+
+    @Data
+    @AllArgsConstructor
+    public static class ProductWeight {
+        @JsonProperty("product_code")
+        String productCode;
+        double quantity;
+    }
+
+    static class StoreSketch {
+        final CountMinSketch frequencies;
+        final SpaceSaving heavyHitters;
+
+        StoreSketch(TopProductsConfiguration config) {
+            this.frequencies = new CountMinSketch(config.sketchDepth, config.sketchWidth);
+            this.heavyHitters = new SpaceSaving(config.capacity);
+        }
+
+        synchronized void add(String productCode, double quantity) {
+            frequencies.add(productCode, quantity);
+            heavyHitters.add(productCode, quantity);
+        }
+
+        // tracked items, weighted by the tighter of both overestimates
+        synchronized List<ProductWeight> top(int n) {
+            List<ProductWeight> top = new ArrayList<>();
+            for (SpaceSaving.Counter counter : heavyHitters.counters())
+                top.add(new ProductWeight(counter.getItem(), Math.min(counter.getCount(), frequencies.estimate(counter.getItem()))));
+            top.sort(Comparator.comparingDouble(ProductWeight::getQuantity).reversed());
+            return top.subList(0, Math.min(n, top.size()));
+        }
+
+        synchronized void decay(double factor) {
+            frequencies.decay(factor);
+            heavyHitters.decay(factor);
+        }
+    }
+
+    final ElassandraStorage storage;
+    final TopProductsConfiguration config;
+    final Cache<String, StoreSketch> sketches;
+    final String nodeId;
+    PreparedStatement insertSnapshot;
+
+    public TopProducts(ElassandraStorage storage, TopProductsConfiguration config) {
+        this.storage = storage;
+        this.config = config;
+        this.sketches = CacheBuilder.newBuilder().maximumSize(config.maxStores).build();
+        this.nodeId = config.nodeId != null && !config.nodeId.isEmpty() ? config.nodeId : hostName();
+    }
+
+    static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            logger.warn("unknown host name, top products snapshot will not be reloaded: {}", e.toString());
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    StoreSketch sketch(String storeCode) {
+        try {
+            return sketches.get(storeCode, () -> new StoreSketch(config));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.enabled;
+    }
+
+    /**
+     * Account the items of a written basket.
+     * @param basket
+     */
+    public void add(Basket basket) {
+        if (!config.enabled || basket.getBasketStatus() != BasketStatus.Finished || basket.getStoreCode() == null || basket.getItems() == null)
+            return;
+        StoreSketch sketch = sketch(basket.getStoreCode());
+        for (BasketItem item : basket.getItems()) {
+            if (item.getProductCode() != null && item.getProductQuantity() != null && item.getProductQuantity() > 0)
+                sketch.add(item.getProductCode(), item.getProductQuantity());
+        }
+    }
+
+    /**
+     * @param storeCode
+     * @param n
+     * @return the n best selling products of the store, best first
+     */
+    public List<ProductWeight> top(String storeCode, int n) {
+        StoreSketch sketch = sketches.getIfPresent(storeCode);
+        return sketch == null ? Collections.emptyList() : sketch.top(n);
+    }
+
+    @Scheduled(fixedDelay = "${basketapp.top-products.decay-interval:1h}", initialDelay = "${basketapp.top-products.decay-interval:1h}")
+    public void decay() {
+        for (StoreSketch sketch : sketches.asMap().values())
+            sketch.decay(config.decayFactor);
+    }
+
+    @Scheduled(fixedDelay = "${basketapp.top-products.snapshot-interval:5m}", initialDelay = "${basketapp.top-products.snapshot-interval:5m}")
+    public void snapshot() {
+        if (!config.enabled || storage.getSession() == null)
+            return;
+        if (insertSnapshot == null)
+            insertSnapshot = storage.getSession().prepare("INSERT INTO top_products_by_node (store_code, node, weights, updated) VALUES (?, ?, ?, ?) USING TTL ?");
+        Date now = new Date();
+        int ttl = (int) config.snapshotTtl.getSeconds();
+        AtomicInteger failures = new AtomicInteger();
+        Flowable.fromIterable(new ArrayList<>(sketches.asMap().entrySet()))
+            .flatMapCompletable(entry -> {
+                Map<String, Double> weights = new HashMap<>();
+                for (ProductWeight product : entry.getValue().top(config.capacity))
+                    weights.put(product.productCode, product.quantity);
+                return Completable.fromFuture(storage.executeAsync(insertSnapshot.bind(entry.getKey(), nodeId, weights, now, ttl),
+                        storage.getStorageConfiguration().insertConsistency))
+                    .doOnError(e -> {
+                        if (failures.getAndIncrement() == 0)
+                            logger.warn("top products snapshot failed store={}: {}", entry.getKey(), e.toString());
+                    })
+                    .onErrorComplete();
+            })
+            .blockingAwait();
+        if (failures.get() > 0)
+            logger.warn("top products snapshot stores={} failures={}", sketches.size(), failures.get());
+        else
+            logger.debug("top products snapshot stores={}", sketches.size());
+    }
+
+    /**
+     * Warm up sketches from the last snapshot of this instance.
+     */
+    public void load() {
+        if (!config.enabled || storage.getSession() == null)
+            return;
+        int stores = 0;
+        // startup only scan, the table holds one row per store and instance
+        for (Row row : storage.getSession().execute("SELECT store_code, weights FROM top_products_by_node WHERE node = ?", nodeId)) {
+            StoreSketch sketch = sketch(row.getString("store_code"));
+            for (Map.Entry<String, Double> weight : row.getMap("weights", String.class, Double.class).entrySet())
+                sketch.add(weight.getKey(), weight.getValue());
+            stores++;
+        }
+        logger.info("top products loaded node={} stores={}", nodeId, stores);
+    }
+
+    @Override
+    public void onApplicationEvent(ServerStartupEvent event) {
+        try {
+            load();
+        } catch (Exception e) {
+            logger.warn("failed to load top products snapshot:", e);
+        }
+    }
+}
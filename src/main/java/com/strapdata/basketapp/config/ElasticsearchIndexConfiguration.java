@@ -0,0 +1,26 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Settings of the baskets Elasticsearch index, overridable per environment (application-{env}.yml).
+ */
+@ConfigurationProperties("elasticsearch.index")
+public class ElasticsearchIndexConfiguration {
+
+    // index.refresh_interval during normal operation
+    public String refreshInterval = "1s";
+
+    // Elassandra synchronous refresh, a CQL write returns once the document is searchable (read-your-writes)
+    public boolean synchronousRefresh = false;
+
+    // Elassandra derives shards and replicas from the Cassandra topology, only set them to override it.
+    public Integer numberOfShards;
+    public Integer numberOfReplicas;
+
+    // index.translog.durability (request or async), unset to keep the cluster default
+    public String translogDurability;
+
+    // index.refresh_interval while a bulk upload is running, -1 disables refresh
+    public String bulkRefreshInterval = "-1";
+}
@@ -0,0 +1,19 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Full table scans by token range.
+ */
+@ConfigurationProperties("basketapp.export")
+public class ExportConfiguration {
+
+    // token ranges scanned in parallel
+    public int concurrency = 4;
+
+    // rows per page
+    public int fetchSize = 1000;
+
+    // split each token range of the ring into smaller ranges
+    public int splitsPerRange = 1;
+}
@@ -0,0 +1,22 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Short-circuit of retried basket inserts.
+ */
+@ConfigurationProperties("basketapp.idempotency")
+public class IdempotencyConfiguration {
+
+    public boolean enabled = true;
+
+    // Bloom filter sizing of recently written keys, rotated when full
+    public int expectedInsertions = 1_000_000;
+    public double falsePositiveProbability = 0.01;
+
+    // LRU of the last write outcomes
+    public int outcomeCacheSize = 100_000;
+    public Duration outcomeTtl = Duration.ofMinutes(10);
+}
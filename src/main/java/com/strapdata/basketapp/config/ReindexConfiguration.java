@@ -0,0 +1,19 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Online rebuild of the baskets Elasticsearch index.
+ */
+@ConfigurationProperties("basketapp.reindex")
+public class ReindexConfiguration {
+
+    // max rows reindexed per second
+    public double rateLimit = 1000;
+
+    // concurrent row rewrites per scanned token range
+    public int writeConcurrency = 16;
+
+    // delete the previous index version once the alias is switched
+    public boolean deletePrevious = false;
+}
@@ -0,0 +1,22 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Baskets retention, compaction and time-based indices.
+ */
+@ConfigurationProperties("basketapp.retention")
+public class RetentionConfiguration {
+
+    // baskets expire this long after their processing date, 0 keeps them forever
+    public Duration ttl = Duration.ZERO;
+
+    // TimeWindowCompactionStrategy on the baskets table, with windows of compactionWindowDays
+    public boolean timeWindowCompaction = false;
+    public int compactionWindowDays = 3;
+
+    // index baskets into monthly indices behind the search alias, months older than ttl are deleted (requires a ttl)
+    public boolean monthlyIndices = false;
+}
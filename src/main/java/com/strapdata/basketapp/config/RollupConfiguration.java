@@ -0,0 +1,15 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Sales rollups maintained at ingest.
+ */
+@ConfigurationProperties("basketapp.rollup")
+public class RollupConfiguration {
+
+    public boolean enabled = true;
+
+    // concurrent counter updates of a flush
+    public int flushConcurrency = 32;
+}
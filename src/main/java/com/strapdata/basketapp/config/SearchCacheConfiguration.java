@@ -0,0 +1,22 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Short lived cache of basket search results.
+ */
+@ConfigurationProperties("basketapp.search-cache")
+public class SearchCacheConfiguration {
+
+    public boolean enabled = true;
+
+    public Duration ttl = Duration.ofSeconds(2);
+
+    // approximate heap size in bytes of the cached results
+    public long maximumWeight = 64L * 1024 * 1024;
+
+    // stores whose last write is tracked for a refresh interval, beyond it searches of other stores are not cached either
+    public int maxStores = 10000;
+}
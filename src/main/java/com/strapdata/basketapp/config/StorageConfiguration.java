@@ -0,0 +1,28 @@
+package com.strapdata.basketapp.config;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cassandra keyspace topology and default consistency levels, overridable per request.
+ */
+@ConfigurationProperties("basketapp.storage")
+public class StorageConfiguration {
+
+    // replication factor per datacenter, when empty the keyspace is replicated once in the datacenter of the first host.
+    // Applied to an existing keyspace at startup when set (a repair is then needed), an empty map keeps its replication.
+    public Map<String, Integer> replication = new LinkedHashMap<>();
+
+    // applied at creation and to an existing keyspace at startup
+    public boolean durableWrites = true;
+
+    // route requests to this datacenter only (DC-aware and token-aware load balancing)
+    public String localDatacenter;
+
+    public ConsistencyLevel readConsistency = ConsistencyLevel.LOCAL_ONE;
+    public ConsistencyLevel searchConsistency = ConsistencyLevel.LOCAL_ONE;
+    public ConsistencyLevel insertConsistency = ConsistencyLevel.LOCAL_ONE;
+}
@@ -0,0 +1,33 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * In-memory best sellers per store.
+ */
+@ConfigurationProperties("basketapp.top-products")
+public class TopProductsConfiguration {
+
+    public boolean enabled = true;
+
+    // products tracked per store
+    public int capacity = 100;
+
+    // Count-Min sketch size per store
+    public int sketchDepth = 4;
+    public int sketchWidth = 1024;
+
+    // stores kept in memory, least recently used (updated or read) are dropped
+    public int maxStores = 10_000;
+
+    // multiply counts by this factor at every decay interval
+    public double decayFactor = 0.5;
+
+    // snapshot owner, each instance reloads its own snapshot. Defaults to the host name (the pod name on k8s).
+    public String nodeId;
+
+    // snapshots of instances not running anymore expire after this delay
+    public Duration snapshotTtl = Duration.ofDays(7);
+}
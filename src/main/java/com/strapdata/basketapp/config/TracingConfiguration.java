@@ -0,0 +1,32 @@
+package com.strapdata.basketapp.config;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Slow request and slow query tracing.
+ */
+@ConfigurationProperties("basketapp.tracing")
+public class TracingConfiguration {
+
+    public boolean enabled = true;
+
+    // CQL statements slower than this are logged with their bound values and coordinator
+    public Duration slowQueryThreshold = Duration.ofMillis(100);
+
+    // HTTP requests and searches slower than this are logged
+    public Duration slowRequestThreshold = Duration.ofMillis(500);
+
+    // fraction of traced statements executed with Cassandra query tracing
+    public double cassandraTracingRate = 0.0;
+
+    // replay slow searches with the Elasticsearch profile API
+    public boolean elasticsearchProfile = true;
+
+    // max profiled searches per second, slow searches beyond this rate are not replayed
+    public double profileRate = 0.1;
+
+    // trace events kept in memory
+    public int ringBufferSize = 1000;
+}
@@ -0,0 +1,104 @@
+package com.strapdata.basketapp.controllers;
+
+import com.strapdata.basketapp.ReindexJob;
+import com.strapdata.basketapp.SalesRollups;
+import com.strapdata.basketapp.utils.RequestTracer;
+import com.strapdata.basketapp.utils.TraceEvent;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Delete;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.QueryValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Administration endpoints.
+ */
+@Controller("/basketapp/admin")
+public class AdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    final ReindexJob reindexJob;
+    final SalesRollups salesRollups;
+    final RequestTracer tracer;
+
+    public AdminController(ReindexJob reindexJob, SalesRollups salesRollups, RequestTracer tracer) {
+        this.reindexJob = reindexJob;
+        this.salesRollups = salesRollups;
+        this.tracer = tracer;
+    }
+
+    /**
+     * Rebuild the baskets Elasticsearch index into a new index version, then switch the search alias.
+     * @param rate max reindexed rows per second
+     * @return the job status, 400 if the rate is not positive, or 409 if a rebuild is already running
+     * @throws IOException
+     */
+    @Post("/reindex")
+    public HttpResponse<ReindexJob.Status> reindex(@Nullable @QueryValue("rate") Double rate) throws IOException {
+        try {
+            return HttpResponse.accepted().body(reindexJob.start(rate));
+        } catch (IllegalArgumentException e) {
+            logger.warn("reindex rejected: {}", e.getMessage());
+            return HttpResponse.<ReindexJob.Status>status(HttpStatus.BAD_REQUEST).body(reindexJob.status());
+        } catch (IllegalStateException e) {
+            logger.warn("reindex rejected: {}", e.getMessage());
+            return HttpResponse.<ReindexJob.Status>status(HttpStatus.CONFLICT).body(reindexJob.status());
+        }
+    }
+
+    /**
+     * @return progress of the current or last index rebuild
+     */
+    @Get("/reindex")
+    public ReindexJob.Status reindexStatus() {
+        return reindexJob.status();
+    }
+
+    /**
+     * Abort the running index rebuild, search stays on the previous index.
+     * @return
+     */
+    @Delete("/reindex")
+    public ReindexJob.Status cancelReindex() {
+        return reindexJob.cancel();
+    }
+
+    /**
+     * Recompute the sales rollups from the baskets table in background.
+     * @return 202, or 409 if a rebuild is already running
+     */
+    @Post("/rollup/rebuild")
+    public HttpStatus rebuildRollups() {
+        try {
+            salesRollups.rebuild().subscribe(
+                () -> logger.info("rollup rebuild done"),
+                e -> logger.error("rollup rebuild failed:", e));
+            return HttpStatus.ACCEPTED;
+        } catch (IllegalStateException e) {
+            logger.warn("rollup rebuild rejected: {}", e.getMessage());
+            return HttpStatus.CONFLICT;
+        }
+    }
+
+    /**
+     * Recent slow requests, searches and CQL statements, newest first.
+     * @param traceId only the events of this trace id
+     * @return
+     */
+    @Get("/traces")
+    public List<TraceEvent> traces(@Nullable @QueryValue("trace_id") String traceId) {
+        return tracer.events().stream()
+            .filter(event -> traceId == null || traceId.equals(event.getTraceId()))
+            .collect(Collectors.toList());
+    }
+}
@@ -1,18 +1,40 @@
 package com.strapdata.basketapp.controllers;
 
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.mapping.Mapper;
-import com.datastax.driver.mapping.Result;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.strapdata.basketapp.ElassandraStorage;
+import com.strapdata.basketapp.SalesRollups;
+import com.strapdata.basketapp.TopProducts;
+import com.strapdata.basketapp.config.StorageConfiguration;
 import com.strapdata.basketapp.model.Basket;
 import com.strapdata.basketapp.model.BasketAccessor;
+import com.strapdata.basketapp.model.BasketSearch;
+import com.strapdata.basketapp.model.BasketStatus;
+import com.strapdata.basketapp.model.BasketView;
+import com.strapdata.basketapp.utils.RecentWriteFilter;
+import com.strapdata.basketapp.utils.RequestTracer;
+import com.strapdata.basketapp.utils.RxFutures;
+import com.strapdata.basketapp.utils.SearchCache;
 import com.strapdata.basketapp.utils.TransformedListenableFuture;
 import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.*;
 import io.micronaut.http.multipart.CompletedFileUpload;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,11 +47,32 @@ public class BasketController {
 
     private static final Logger logger = LoggerFactory.getLogger(BasketController.class);
 
+    // max concurrent writes of a bulk upload
+    static final int UPLOAD_CONCURRENCY = 64;
+
     ElassandraStorage storage;
     BasketAccessor basketAccessor;
+    ObjectMapper jsonMapper;
+    ObjectWriter hashWriter;
+    RecentWriteFilter recentWrites;
+    StorageConfiguration storageConfig;
+    SearchCache searchCache;
+    SalesRollups salesRollups;
+    TopProducts topProducts;
+    RequestTracer tracer;
 
-    public BasketController(ElassandraStorage storage) {
+    public BasketController(ElassandraStorage storage, ObjectMapper jsonMapper, RecentWriteFilter recentWrites,
+                            SearchCache searchCache, SalesRollups salesRollups, TopProducts topProducts,
+                            RequestTracer tracer) {
         this.storage = storage;
+        this.tracer = tracer;
+        this.searchCache = searchCache;
+        this.salesRollups = salesRollups;
+        this.topProducts = topProducts;
+        this.storageConfig = storage.getStorageConfiguration();
+        this.jsonMapper = jsonMapper;
+        this.hashWriter = jsonMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        this.recentWrites = recentWrites;
         this.basketAccessor = storage.getMappingManager().createAccessor(BasketAccessor.class);
     }
 
@@ -45,40 +88,208 @@ public class BasketController {
     /**
      * Get a basket by id.
      * @param id
+     * @param consistency overrides the configured read consistency level
      * @return
      */
     @Get(uri = "/{id}")
-    public Maybe<Basket> getById(@QueryValue("id") UUID id) {
-        return Maybe.fromFuture(storage.getMapper(Basket.class).getAsync(id));
+    public Maybe<Basket> getById(@QueryValue("id") UUID id, @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
+        Mapper<Basket> basketMapper = storage.getMapper(Basket.class);
+        Statement statement = tracer.tag(basketMapper.getQuery(id));
+        return Maybe.fromFuture(new TransformedListenableFuture<ResultSet, Basket>(
+            storage.executeAsync(statement, consistency != null ? consistency : storageConfig.readConsistency),
+            rs -> basketMapper.map(rs).one()));
+    }
+
+    /**
+     * Get a basket by id, items are serialized without being mapped to BasketItem objects.
+     * @param id
+     * @param consistency overrides the configured read consistency level
+     * @return
+     */
+    @Get(uri = "/{id}/view")
+    public Maybe<BasketView> getViewById(@QueryValue("id") UUID id, @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
+        Statement statement = tracer.tag(this.basketAccessor.getViewById(id));
+        return Maybe.fromFuture(new TransformedListenableFuture<ResultSet, BasketView>(
+            storage.executeAsync(statement, consistency != null ? consistency : storageConfig.readConsistency),
+            rs -> {
+                Row row = rs.one();
+                return row == null ? null : BasketView.fromRow(row);
+            }));
     }
 
     /**
-     * Search for baskets matching the store code and product code.
+     * Search for baskets matching the store code, product code, status, processing date range and total paid range.
+     * All criteria are optional and applied as Elasticsearch filters.
      * @param storeCode
      * @param productCode
+     * @param basketStatus
+     * @param from processing date lower bound (inclusive), an ISO 8601 date or date math expression
+     * @param to processing date upper bound (inclusive), an ISO 8601 date or date math expression
+     * @param minAmount total paid lower bound (inclusive)
+     * @param maxAmount total paid upper bound (inclusive)
+     * @param sort sort field, unsorted by default
+     * @param order sort order, asc by default
+     * @param consistency overrides the configured search consistency level
      * @return
      */
     @Get(uri = "/search", consumes = MediaType.APPLICATION_FORM_URLENCODED)
     public Single<List<Basket>> getByStoreAndProduct(@Nullable @QueryValue("store_code") String storeCode,
-                                                     @Nullable @QueryValue("product_code") String productCode) {
-        String esQuery = BasketAccessor.storeAndProductQuery(storeCode, productCode);
-        return Single.fromFuture(new TransformedListenableFuture<Result<Basket>, List<Basket>>(this.basketAccessor.getByElasticsearchQueryAsync(esQuery), Result::all));
+                                                     @Nullable @QueryValue("product_code") String productCode,
+                                                     @Nullable @QueryValue("basket_status") BasketStatus basketStatus,
+                                                     @Nullable @QueryValue("from") String from,
+                                                     @Nullable @QueryValue("to") String to,
+                                                     @Nullable @QueryValue("min_amount") Double minAmount,
+                                                     @Nullable @QueryValue("max_amount") Double maxAmount,
+                                                     @Nullable @QueryValue("sort") BasketSearch.SortField sort,
+                                                     @Nullable @QueryValue("order") SortOrder order,
+                                                     @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
+        String esQuery = BasketSearch.builder()
+            .storeCode(storeCode)
+            .productCode(productCode)
+            .basketStatus(basketStatus)
+            .processingDateFrom(from)
+            .processingDateTo(to)
+            .minAmount(minAmount)
+            .maxAmount(maxAmount)
+            .sort(sort)
+            .order(order)
+            .build()
+            .toElasticsearchQuery();
+
+        // an explicit consistency level bypasses the cache
+        List<Basket> cached = (consistency == null) ? searchCache.get(esQuery) : null;
+        if (cached != null)
+            return Single.just(cached);
+
+        long searchStart = searchCache.startSearch();
+        RequestTracer.Span span = tracer.search("search", esQuery);
+        Statement statement = span.statement(this.basketAccessor.getByElasticsearchQuery(esQuery));
+        Mapper<Basket> basketMapper = storage.getMapper(Basket.class);
+        return Single.fromFuture(new TransformedListenableFuture<ResultSet, List<Basket>>(
+                storage.executeAsync(statement, consistency != null ? consistency : storageConfig.searchConsistency),
+                rs -> span.map(rs, r -> basketMapper.map(r).all())))
+            .doOnSuccess(baskets -> searchCache.put(storeCode, esQuery, searchStart, baskets));
     }
 
     /**
-     * Bulk upload data.
+     * Bulk upload data, a JSON array or a stream of JSON baskets.
+     * Elasticsearch refresh is disabled during the upload and restored afterwards.
+     * Baskets already past the retention period are skipped.
      * @param file
+     * @param consistency overrides the configured write consistency level
      * @return
      */
     @Post(value = "/", consumes = MediaType.MULTIPART_FORM_DATA)
-    public HttpStatus upload(CompletedFileUpload file) {
+    public Single<HttpStatus> upload(CompletedFileUpload file, @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
         logger.debug("receiving file={} content-type={}", file.getFilename(), file.getContentType());
-        return HttpStatus.OK;
+        Mapper<Basket> basketMapper = storage.getMapper(Basket.class);
+        String traceId = RequestTracer.currentTraceId();
+        return Completable.fromAction(storage::beginBulkLoad)
+            .andThen(Flowable.using(
+                    () -> jsonMapper.readerFor(Basket.class).<Basket>readValues(file.getInputStream()),
+                    baskets -> Flowable.fromIterable(() -> baskets),
+                    MappingIterator::close)
+                .map(Basket::withComputedTotalPaid)
+                .filter(basket -> {
+                    // baskets past the retention period would expire at once, and must not feed rollups
+                    if (storage.isExpired(basket.getProcessingDate())) {
+                        logger.debug("skip expired basket id={} processing_date={}", basket.getId(), basket.getProcessingDate());
+                        return false;
+                    }
+                    return true;
+                })
+                .flatMapCompletable(basket -> {
+                    String key = writeKey(null, basket);
+                    HashCode contentHash = contentHash(basket);
+                    if (recentWrites.isDuplicate(key, contentHash))
+                        return Completable.complete();
+                    return isNewSale(basket, traceId).flatMapCompletable(newSale ->
+                        RxFutures.completable(storage.getSession().executeAsync(
+                                tracer.tag(basketMapper.saveQuery(basket, writeOptions(basket, consistency)), traceId)))
+                            .doOnComplete(() -> {
+                                searchCache.invalidateBasket(basket);
+                                if (newSale) {
+                                    salesRollups.add(basket);
+                                    topProducts.add(basket);
+                                }
+                                recentWrites.recordWrite(key, contentHash);
+                            }));
+                }, false, UPLOAD_CONCURRENCY)
+                // only once the bulk load has begun, so that a failed begin does not end the bulk load of another upload
+                .doFinally(storage::endBulkLoad))
+            .toSingleDefault(HttpStatus.OK);
     }
 
+    /**
+     * Insert or update a basket.
+     * A retry with the same idempotency key (or basket id when no key is provided) and the same content is
+     * acknowledged without being written again. The total paid is computed from the items when not provided.
+     * @param body
+     * @param idempotencyKey
+     * @param consistency overrides the configured write consistency level
+     * @return 202, or 422 if the basket is already past the retention period
+     */
     @Post(value = "/", consumes = MediaType.APPLICATION_JSON)
-    public Single<HttpStatus> insert(@Body Basket basket) {
+    public Single<HttpStatus> insert(@Body Basket body,
+                                     @Nullable @Header("Idempotency-Key") String idempotencyKey,
+                                     @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
+        Basket basket = body.withComputedTotalPaid();
         logger.debug("insert basket={}", basket);
-        return Completable.fromFuture(storage.getMapper(Basket.class).saveAsync(basket)).toSingleDefault(HttpStatus.ACCEPTED);
+        if (storage.isExpired(basket.getProcessingDate())) {
+            logger.debug("reject expired basket id={} processing_date={}", basket.getId(), basket.getProcessingDate());
+            return Single.just(HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        String key = writeKey(idempotencyKey, basket);
+        HashCode contentHash;
+        try {
+            contentHash = contentHash(basket);
+        } catch (JsonProcessingException e) {
+            return Single.error(e);
+        }
+        if (recentWrites.isDuplicate(key, contentHash)) {
+            logger.debug("skip duplicate insert key={}", key);
+            return Single.just(HttpStatus.ACCEPTED);
+        }
+        String traceId = RequestTracer.currentTraceId();
+        return isNewSale(basket, traceId).flatMapCompletable(newSale ->
+                RxFutures.completable(storage.getSession().executeAsync(
+                        tracer.tag(storage.getMapper(Basket.class).saveQuery(basket, writeOptions(basket, consistency)), traceId)))
+                    .doOnComplete(() -> {
+                        searchCache.invalidateBasket(basket);
+                        if (newSale) {
+                            salesRollups.add(basket);
+                            topProducts.add(basket);
+                        }
+                        recentWrites.recordWrite(key, contentHash);
+                    }))
+            .toSingleDefault(HttpStatus.ACCEPTED);
+    }
+
+    // a finished basket is counted by the rollups and top products once, when first written as finished
+    Single<Boolean> isNewSale(Basket basket, @Nullable String traceId) {
+        if (!salesRollups.isEnabled() && !topProducts.isEnabled())
+            return Single.just(false);
+        return salesRollups.isNewSale(basket, traceId);
+    }
+
+    // recent write key, idempotency keys and basket ids are prefixed so that a client key never matches a basket id
+    static String writeKey(@Nullable String idempotencyKey, Basket basket) {
+        if (idempotencyKey != null)
+            return "key:" + idempotencyKey;
+        return basket.getId() == null ? null : "id:" + basket.getId();
+    }
+
+    // 128 bits digest of the serialized basket, so that a changed basket is never taken for a retry
+    HashCode contentHash(Basket basket) throws JsonProcessingException {
+        return Hashing.murmur3_128().hashBytes(hashWriter.writeValueAsBytes(basket));
+    }
+
+    // write consistency level and retention TTL of a basket
+    Mapper.Option[] writeOptions(Basket basket, @Nullable ConsistencyLevel consistency) {
+        Mapper.Option consistencyOption = Mapper.Option.consistencyLevel(consistency != null ? consistency : storageConfig.insertConsistency);
+        int ttl = storage.ttl(basket.getProcessingDate());
+        return ttl > 0
+            ? new Mapper.Option[] { consistencyOption, Mapper.Option.ttl(ttl) }
+            : new Mapper.Option[] { consistencyOption };
     }
 }
@@ -0,0 +1,133 @@
+package com.strapdata.basketapp.controllers;
+
+import com.datastax.driver.core.TokenRange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.strapdata.basketapp.ElassandraStorage;
+import com.strapdata.basketapp.TokenRangeScanner;
+import com.strapdata.basketapp.model.BasketView;
+import com.strapdata.basketapp.utils.RequestTracer;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.reactivex.Flowable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Export all baskets, scanning the ring by token ranges in parallel.
+ * With checkpoints enabled, a checkpoint line with the end token of each range follows its rows: a failed export
+ * resumes with from_token set to the last received checkpoint, even if the topology changed meanwhile.
+ * The last checkpoint is the minimum token, the end of the ring, once the export is complete.
+ */
+@Controller("/basketapp/export")
+public class ExportController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportController.class);
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    public static final String TEXT_CSV = "text/csv";
+
+    static final String CSV_HEADER = "id,store_code,basket_status,processing_date,product_code,product_qty,amount_paid\n";
+
+    final TokenRangeScanner scanner;
+    final ObjectWriter jsonWriter;
+
+    public ExportController(TokenRangeScanner scanner, ObjectMapper jsonMapper) {
+        this.scanner = scanner;
+        this.jsonWriter = jsonMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    /**
+     * Export baskets as newline delimited JSON.
+     * @param fromToken resume after this token, exclusive
+     * @param checkpoints emit a {"checkpoint":"token"} line when the range ending at token is exported
+     * @return
+     */
+    @Get(uri = "/baskets.ndjson", produces = APPLICATION_NDJSON)
+    public Flowable<String> exportNdjson(@Nullable @QueryValue("from_token") String fromToken,
+                                         @Nullable @QueryValue("checkpoints") Boolean checkpoints) {
+        List<TokenRange> ranges = ranges(fromToken);
+        String traceId = RequestTracer.currentTraceId();
+        logger.debug("export ndjson ranges={} from_token={}", ranges.size(), fromToken);
+        return scanner.scan(ranges, 0, i ->
+            scanner.scan(ElassandraStorage.TABLE, BasketView.COLUMNS, ranges.get(i), traceId)
+                .map(row -> jsonWriter.writeValueAsString(BasketView.fromRow(row)) + "\n")
+                .concatWith(Boolean.TRUE.equals(checkpoints) ? Flowable.just("{\"checkpoint\":\"" + ranges.get(i).getEnd() + "\"}\n") : Flowable.empty()));
+    }
+
+    /**
+     * Export baskets as CSV, one line per basket item.
+     * @param fromToken resume after this token, exclusive
+     * @param checkpoints emit a "# checkpoint token" line when the range ending at token is exported
+     * @return
+     */
+    @Get(uri = "/baskets.csv", produces = TEXT_CSV)
+    public Flowable<String> exportCsv(@Nullable @QueryValue("from_token") String fromToken,
+                                      @Nullable @QueryValue("checkpoints") Boolean checkpoints) {
+        List<TokenRange> ranges = ranges(fromToken);
+        String traceId = RequestTracer.currentTraceId();
+        logger.debug("export csv ranges={} from_token={}", ranges.size(), fromToken);
+        return Flowable.just(CSV_HEADER).concatWith(scanner.scan(ranges, 0, i ->
+            scanner.scan(ElassandraStorage.TABLE, BasketView.COLUMNS, ranges.get(i), traceId)
+                .map(row -> csv(BasketView.fromRow(row)))
+                .concatWith(Boolean.TRUE.equals(checkpoints) ? Flowable.just("# checkpoint " + ranges.get(i).getEnd() + "\n") : Flowable.empty())));
+    }
+
+    // validated before streaming, so that an invalid token is a 400 and not an error in the middle of the stream
+    List<TokenRange> ranges(@Nullable String fromToken) {
+        try {
+            return scanner.ranges(fromToken);
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid from_token: " + fromToken);
+        }
+    }
+
+    static String csv(BasketView view) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder prefix = new StringBuilder();
+        prefix.append(view.getId()).append(',');
+        escape(prefix, view.getStoreCode()).append(',');
+        escape(prefix, view.getBasketStatus()).append(',');
+        if (view.getProcessingDate() != null)
+            prefix.append(dateFormat.format(view.getProcessingDate()));
+        prefix.append(',');
+
+        int n = view.itemCount();
+        if (n == 0)
+            return prefix.append(",,\n").toString();
+        int[] quantities = view.quantities();
+        double[] amounts = view.amountsPaid();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(prefix);
+            escape(sb, view.productCode(i)).append(',');
+            // null quantities and amounts are empty fields
+            if (view.hasQuantity(i))
+                sb.append(quantities[i]);
+            sb.append(',');
+            if (view.hasAmountPaid(i))
+                sb.append(amounts[i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static StringBuilder escape(StringBuilder sb, String value) {
+        if (value == null)
+            return sb;
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return sb.append(value);
+        return sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,73 @@
+package com.strapdata.basketapp.controllers;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.mapping.Mapper;
+import com.strapdata.basketapp.ElassandraStorage;
+import com.strapdata.basketapp.TopProducts;
+import com.strapdata.basketapp.model.SalesRollup;
+import com.strapdata.basketapp.model.SalesRollupAccessor;
+import com.strapdata.basketapp.utils.TransformedListenableFuture;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.reactivex.Single;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Sales statistics.
+ */
+@Controller("/basketapp/sales")
+public class SalesController {
+
+    ElassandraStorage storage;
+    SalesRollupAccessor rollupAccessor;
+    TopProducts topProducts;
+
+    public SalesController(ElassandraStorage storage, TopProducts topProducts) {
+        this.storage = storage;
+        this.topProducts = topProducts;
+        this.rollupAccessor = storage.getMappingManager().createAccessor(SalesRollupAccessor.class);
+    }
+
+    /**
+     * Daily sales of a store, per product.
+     * @param storeCode
+     * @param day yyyy-MM-dd (UTC)
+     * @param productCode optional product filter
+     * @param consistency overrides the configured read consistency level
+     * @return
+     */
+    @Get("/daily")
+    public Single<List<SalesRollup>> daily(@QueryValue("store_code") String storeCode,
+                                           @QueryValue("day") String day,
+                                           @Nullable @QueryValue("product_code") String productCode,
+                                           @Nullable @QueryValue("consistency") ConsistencyLevel consistency) {
+        Statement statement = productCode == null
+            ? rollupAccessor.getByStoreAndDay(storeCode, day)
+            : rollupAccessor.getByStoreDayAndProduct(storeCode, day, productCode);
+        Mapper<SalesRollup> rollupMapper = storage.getMapper(SalesRollup.class);
+        return Single.fromFuture(new TransformedListenableFuture<ResultSet, List<SalesRollup>>(
+            storage.executeAsync(statement, consistency != null ? consistency : storage.getStorageConfiguration().readConsistency),
+            rs -> rollupMapper.map(rs).all()));
+    }
+
+    /**
+     * Live best selling products of a store, by decayed quantity, served from memory.
+     * @param storeCode
+     * @param n number of products, 10 by default
+     * @return the top products, or 400 if n is not positive
+     */
+    @Get("/top")
+    public HttpResponse<List<TopProducts.ProductWeight>> top(@QueryValue("store_code") String storeCode,
+                                                             @Nullable @QueryValue("n") Integer n) {
+        if (n != null && n <= 0)
+            return HttpResponse.status(HttpStatus.BAD_REQUEST);
+        return HttpResponse.ok(topProducts.top(storeCode, n == null ? 10 : n));
+    }
+}
@@ -2,40 +2,138 @@ package com.strapdata.basketapp.controllers;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Expose the Swagger descriptor with an URL targeting the k8s service and the app context.
+ * The descriptor is built once, served gzipped to clients accepting it, and revalidated with its ETag.
+ * Other responses are compressed by the server with the Micronaut defaults (above 1KB, level 6).
  */
 @Controller("/swagger")
 public class SwaggerController {
 
     private static final Logger logger = LoggerFactory.getLogger(SwaggerController.class);
 
-    final String yamlDescriptor;
+    static final String DESCRIPTOR = "META-INF/swagger/basketapp-0.2.yml";
+    static final String GZIP = "gzip";
 
-    public SwaggerController() throws URISyntaxException, IOException {
-        String descriptor = new String(Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource("META-INF/swagger/basketapp-0.2.yml").toURI())));
+    final byte[] yamlDescriptor;
+    final byte[] gzippedDescriptor;
+    // strong entity tags must differ between the identity and gzip representations
+    final String etag;
+    final String gzipEtag;
+
+    public SwaggerController() throws IOException {
+        // loaded as a stream, the resource is not a file inside the shadow jar
+        String descriptor;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(DESCRIPTOR)) {
+            if (is == null)
+                throw new FileNotFoundException(DESCRIPTOR);
+            descriptor = new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+        }
         Yaml yaml = new Yaml();
         Map<String, Object> yamlMap = yaml.load(descriptor);
         yamlMap.put("servers", ImmutableList.of(ImmutableMap.of("url",
                 "http://" + System.getProperty("SERVICE_NAME", "basketapp") + ":" + Integer.getInteger("SERVICE_PORT", 8080) + "/basketapp")));
-        yamlDescriptor = yaml.dump(yamlMap);
+        yamlDescriptor = yaml.dump(yamlMap).getBytes(StandardCharsets.UTF_8);
+        gzippedDescriptor = gzip(yamlDescriptor);
+        String hash = Hashing.murmur3_128().hashBytes(yamlDescriptor).toString();
+        etag = "\"" + hash + "\"";
+        gzipEtag = "\"" + hash + "-" + GZIP + "\"";
+        logger.debug("swagger descriptor size={} gzipped={} etag={}", yamlDescriptor.length, gzippedDescriptor.length, etag);
     }
 
     @Get(value = "/", produces = MediaType.APPLICATION_YAML)
-    public String descriptor() {
-        return yamlDescriptor;
+    public MutableHttpResponse<byte[]> descriptor(@Nullable @Header(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                                  @Nullable @Header(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String responseEtag = gzip ? gzipEtag : etag;
+        if (matches(ifNoneMatch, responseEtag))
+            return HttpResponse.<byte[]>status(HttpStatus.NOT_MODIFIED)
+                .header(HttpHeaders.ETAG, responseEtag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        MutableHttpResponse<byte[]> response = HttpResponse.ok(gzip ? gzippedDescriptor : yamlDescriptor)
+            .contentType(MediaType.APPLICATION_YAML_TYPE)
+            .header(HttpHeaders.ETAG, responseEtag)
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // an encoded response is passed through as is by the server compression
+        if (gzip)
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        return response;
+    }
+
+    // If-None-Match is a list of entity tags, or *, compared with the weak comparison
+    static boolean matches(@Nullable String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    // Accept-Encoding is a list of codings with optional q-values, q=0 meaning not acceptable
+    static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        Double gzipQuality = null;
+        Double anyQuality = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().toLowerCase(Locale.ROOT);
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(GZIP) || name.equals("x-gzip"))
+                gzipQuality = quality;
+            else if (name.equals("*"))
+                anyQuality = quality;
+        }
+        if (gzipQuality != null)
+            return gzipQuality > 0;
+        return anyQuality != null && anyQuality > 0;
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
     }
 }
@@ -14,9 +14,8 @@ import java.util.List;
 import java.util.UUID;
 
 
+// read and write consistency levels are set per operation from the StorageConfiguration
 @Table(name = "baskets",
-    readConsistency = "LOCAL_ONE",
-    writeConsistency = "LOCAL_ONE",
     caseSensitiveKeyspace = false,
     caseSensitiveTable = false)
 @Data
@@ -29,19 +28,43 @@ import java.util.UUID;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class Basket {
     @PartitionKey(0)
+    @ElasticsearchField(type = "keyword", docValues = false)
     UUID id;
 
     @Column(name = "store_code")
     @JsonProperty("store_code")
+    @ElasticsearchField(type = "keyword")
     String storeCode;
 
     @Column(name = "basket_status")
     @JsonProperty("basket_status")
+    @ElasticsearchField(type = "keyword")
     BasketStatus basketStatus;
 
     @Column(name = "processing_date")
     @JsonProperty("processing_date")
+    @ElasticsearchField(type = "date")
     Date processingDate;
 
+    // sum of the items amount paid, computed on write when not provided
+    @Column(name = "total_paid")
+    @JsonProperty("total_paid")
+    @ElasticsearchField(type = "double")
+    Double totalPaid;
+
+    @ElasticsearchField(type = "nested")
     List<BasketItem> items;
+
+    /**
+     * @return the basket with its total paid, computed from the items when not set.
+     */
+    public Basket withComputedTotalPaid() {
+        if (totalPaid != null || items == null)
+            return this;
+        double total = 0;
+        for (BasketItem item : items)
+            if (item.getAmountPaid() != null)
+                total += item.getAmountPaid();
+        return withTotalPaid(total);
+    }
 }
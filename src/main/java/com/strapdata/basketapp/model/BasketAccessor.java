@@ -1,35 +1,25 @@
 package com.strapdata.basketapp.model;
 
-import com.datastax.driver.mapping.Result;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.mapping.annotations.Accessor;
 import com.datastax.driver.mapping.annotations.Query;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.strapdata.basketapp.ElassandraStorage;
 import com.strapdata.basketapp.model.Basket;
-import org.apache.lucene.search.join.ScoreMode;
-import org.elasticsearch.common.xcontent.ToXContent;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.UUID;
 
 @Accessor
 public interface BasketAccessor {
 
-    @Query("SELECT * FROM baskets WHERE es_query = ? AND es_options='indices=baskets' LIMIT 500 ALLOW FILTERING")
-    ListenableFuture<Result<Basket>> getByElasticsearchQueryAsync(String esQuery);
-
-
-    public static String storeAndProductQuery(String storeCode, String productCode) {
-        BoolQueryBuilder queryBuilder = new BoolQueryBuilder();
-
-        if (storeCode != null)
-            queryBuilder.filter(QueryBuilders.termQuery("store_code", storeCode));
+    // statements are executed by the caller at the requested consistency level
 
-        if (productCode != null)
-            queryBuilder.filter(QueryBuilders.nestedQuery("items", QueryBuilders.termQuery("items.product_code", productCode), ScoreMode.Avg));
+    // search the alias, so that the index can be rebuilt online
+    @Query("SELECT * FROM baskets WHERE es_query = ? AND es_options='indices=" + ElassandraStorage.INDEX_ALIAS + "' LIMIT 500 ALLOW FILTERING")
+    Statement getByElasticsearchQuery(String esQuery);
 
-        if (!queryBuilder.hasClauses())
-            queryBuilder.should(QueryBuilders.matchAllQuery());
+    @Query("SELECT " + BasketView.COLUMNS + " FROM baskets WHERE id = ?")
+    Statement getViewById(UUID id);
 
-        return new SearchSourceBuilder().query(queryBuilder).toString(ToXContent.EMPTY_PARAMS);
-    }
+    @Query("SELECT basket_status FROM baskets WHERE id = ?")
+    Statement getStatusById(UUID id);
 }
@@ -19,13 +19,16 @@ public class BasketItem {
 
     @Field(name = "product_qty")
     @JsonProperty("product_qty")
+    @ElasticsearchField(type = "integer", index = false)
     private Integer productQuantity;
 
     @Field(name = "amount_paid")
     @JsonProperty("amount_paid")
+    @ElasticsearchField(type = "double", index = false)
     private Double amountPaid;
 
     @Field(name = "product_code")
     @JsonProperty("product_code")
+    @ElasticsearchField(type = "keyword")
     private String productCode;
 }
@@ -0,0 +1,95 @@
+package com.strapdata.basketapp.model;
+
+import lombok.*;
+import lombok.experimental.Wither;
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+/**
+ * Basket search criteria, null criteria are ignored.
+ * All criteria are filters (no scoring), so that Elasticsearch can cache them.
+ */
+@Data
+@Builder
+@Wither
+@ToString(includeFieldNames=true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class BasketSearch {
+
+    // sortable fields and their name in the index mapping
+    public enum SortField {
+        PROCESSING_DATE("processing_date"),
+        TOTAL_PAID("total_paid"),
+        STORE_CODE("store_code"),
+        BASKET_STATUS("basket_status");
+
+        public final String field;
+
+        SortField(String field) {
+            this.field = field;
+        }
+    }
+
+    String storeCode;
+    String productCode;
+    BasketStatus basketStatus;
+
+    // processing date range, ISO 8601 dates or Elasticsearch date math (e.g. now-7d/d), inclusive
+    String processingDateFrom;
+    String processingDateTo;
+
+    // total paid range, inclusive
+    Double minAmount;
+    Double maxAmount;
+
+    SortField sort;
+    SortOrder order;
+
+    /**
+     * @return the Elasticsearch search source of this search.
+     */
+    public String toElasticsearchQuery() {
+        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
+
+        if (storeCode != null)
+            queryBuilder.filter(QueryBuilders.termQuery("store_code", storeCode));
+
+        if (productCode != null)
+            queryBuilder.filter(QueryBuilders.nestedQuery("items", QueryBuilders.termQuery("items.product_code", productCode), ScoreMode.None));
+
+        if (basketStatus != null)
+            queryBuilder.filter(QueryBuilders.termQuery("basket_status", basketStatus.name()));
+
+        if (processingDateFrom != null || processingDateTo != null) {
+            RangeQueryBuilder range = QueryBuilders.rangeQuery("processing_date");
+            if (processingDateFrom != null)
+                range.gte(processingDateFrom);
+            if (processingDateTo != null)
+                range.lte(processingDateTo);
+            queryBuilder.filter(range);
+        }
+
+        if (minAmount != null || maxAmount != null) {
+            RangeQueryBuilder range = QueryBuilders.rangeQuery("total_paid");
+            if (minAmount != null)
+                range.gte(minAmount);
+            if (maxAmount != null)
+                range.lte(maxAmount);
+            queryBuilder.filter(range);
+        }
+
+        if (!queryBuilder.hasClauses())
+            queryBuilder.filter(QueryBuilders.matchAllQuery());
+
+        SearchSourceBuilder source = new SearchSourceBuilder().query(queryBuilder);
+        if (sort != null)
+            source.sort(sort.field, order != null ? order : SortOrder.ASC);
+        return source.toString(ToXContent.EMPTY_PARAMS);
+    }
+}
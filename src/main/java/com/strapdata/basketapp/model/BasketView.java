@@ -0,0 +1,261 @@
+package com.strapdata.basketapp.model;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.UserType;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Read-only basket keeping the serialized items column (list&lt;frozen&lt;basket_item&gt;&gt;) as returned by Cassandra.
+ * Items are decoded on demand into primitive arrays, or written to JSON straight from the buffer,
+ * avoiding one BasketItem and its boxed fields per item.
+ */
+@Getter
+@ToString(of = {"id", "storeCode", "basketStatus", "processingDate", "totalPaid"})
+@JsonSerialize(using = BasketView.Serializer.class)
+public class BasketView {
+
+    public static final String COLUMNS = "id, store_code, basket_status, processing_date, total_paid, items";
+
+    private final UUID id;
+    private final String storeCode;
+    private final String basketStatus;
+    private final Date processingDate;
+    private final Double totalPaid;
+
+    // raw items, protocol v4 list encoding: [int n] n * ([int size] udt), udt fields: [int size] bytes (size=-1 for null)
+    @Getter(AccessLevel.NONE)
+    private final ByteBuffer items;
+
+    // position of each basket_item field in the UDT, -1 when absent
+    @Getter(AccessLevel.NONE)
+    private final int codeField, qtyField, paidField;
+
+    // lazily decoded items, published at once so that concurrent readers see complete arrays
+    @Getter(AccessLevel.NONE)
+    private volatile Decoded decoded;
+
+    private static final class Decoded {
+        final String[] productCodes;
+        final int[] quantities;
+        final double[] amountsPaid;
+        // false when the field is null
+        final boolean[] hasQuantity;
+        final boolean[] hasAmountPaid;
+
+        Decoded(String[] productCodes, int[] quantities, double[] amountsPaid, boolean[] hasQuantity, boolean[] hasAmountPaid) {
+            this.productCodes = productCodes;
+            this.quantities = quantities;
+            this.amountsPaid = amountsPaid;
+            this.hasQuantity = hasQuantity;
+            this.hasAmountPaid = hasAmountPaid;
+        }
+    }
+
+    BasketView(UUID id, String storeCode, String basketStatus, Date processingDate, Double totalPaid, ByteBuffer items, UserType itemType) {
+        this.id = id;
+        this.storeCode = storeCode;
+        this.basketStatus = basketStatus;
+        this.processingDate = processingDate;
+        this.totalPaid = totalPaid;
+        this.items = items;
+        int code = -1, qty = -1, paid = -1, i = 0;
+        if (itemType != null) {
+            for (String name : itemType.getFieldNames()) {
+                switch (name) {
+                    case "product_code": code = i; break;
+                    case "product_qty": qty = i; break;
+                    case "amount_paid": paid = i; break;
+                }
+                i++;
+            }
+        }
+        this.codeField = code;
+        this.qtyField = qty;
+        this.paidField = paid;
+    }
+
+    /**
+     * Build a view from a row selecting {@link #COLUMNS}, without decoding the items.
+     * @param row
+     * @return
+     */
+    public static BasketView fromRow(Row row) {
+        DataType itemsType = row.getColumnDefinitions().getType("items");
+        return new BasketView(
+            row.getUUID("id"),
+            row.getString("store_code"),
+            row.getString("basket_status"),
+            row.getTimestamp("processing_date"),
+            row.isNull("total_paid") ? null : row.getDouble("total_paid"),
+            row.getBytesUnsafe("items"),
+            (UserType) itemsType.getTypeArguments().get(0));
+    }
+
+    public int itemCount() {
+        return (items == null || items.remaining() < 4) ? 0 : items.getInt(items.position());
+    }
+
+    public String productCode(int i) {
+        return decode().productCodes[i];
+    }
+
+    public int productQuantity(int i) {
+        return decode().quantities[i];
+    }
+
+    public double amountPaid(int i) {
+        return decode().amountsPaid[i];
+    }
+
+    public boolean hasQuantity(int i) {
+        return decode().hasQuantity[i];
+    }
+
+    public boolean hasAmountPaid(int i) {
+        return decode().hasAmountPaid[i];
+    }
+
+    /**
+     * @return product quantities, 0 when null. The array is shared, do not modify it.
+     */
+    public int[] quantities() {
+        return decode().quantities;
+    }
+
+    /**
+     * @return amounts paid, 0 when null. The array is shared, do not modify it.
+     */
+    public double[] amountsPaid() {
+        return decode().amountsPaid;
+    }
+
+    // concurrent callers may decode twice, both results are equal
+    private Decoded decode() {
+        Decoded d = this.decoded;
+        if (d != null)
+            return d;
+        int n = itemCount();
+        String[] codes = new String[n];
+        int[] qty = new int[n];
+        double[] paid = new double[n];
+        boolean[] hasQty = new boolean[n];
+        boolean[] hasPaid = new boolean[n];
+        int pos = items == null ? 0 : items.position() + 4;
+        for (int i = 0; i < n; i++) {
+            int size = items.getInt(pos);
+            pos += 4;
+            int end = pos + Math.max(size, 0);
+            int field = 0;
+            for (int p = pos; p < end; field++) {
+                int len = items.getInt(p);
+                p += 4;
+                if (len >= 0) {
+                    if (field == codeField)
+                        codes[i] = utf8(items, p, len);
+                    else if (field == qtyField) {
+                        qty[i] = items.getInt(p);
+                        hasQty[i] = true;
+                    } else if (field == paidField) {
+                        paid[i] = items.getDouble(p);
+                        hasPaid[i] = true;
+                    }
+                    p += len;
+                }
+            }
+            pos = end;
+        }
+        d = new Decoded(codes, qty, paid, hasQty, hasPaid);
+        this.decoded = d;
+        return d;
+    }
+
+    private static String utf8(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a basket view as a {@link Basket}, items are written from the raw buffer.
+     */
+    public static class Serializer extends StdSerializer<BasketView> {
+
+        public Serializer() {
+            super(BasketView.class);
+        }
+
+        @Override
+        public void serialize(BasketView view, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            if (view.id != null)
+                gen.writeStringField("id", view.id.toString());
+            if (view.storeCode != null)
+                gen.writeStringField("store_code", view.storeCode);
+            if (view.basketStatus != null)
+                gen.writeStringField("basket_status", view.basketStatus);
+            if (view.processingDate != null) {
+                gen.writeFieldName("processing_date");
+                provider.defaultSerializeDateValue(view.processingDate, gen);
+            }
+            if (view.totalPaid != null)
+                gen.writeNumberField("total_paid", view.totalPaid);
+            if (view.items != null) {
+                gen.writeArrayFieldStart("items");
+                writeItems(view, gen);
+                gen.writeEndArray();
+            }
+            gen.writeEndObject();
+        }
+
+        private void writeItems(BasketView view, JsonGenerator gen) throws IOException {
+            ByteBuffer items = view.items;
+            int n = view.itemCount();
+            int pos = items.position() + 4;
+            for (int i = 0; i < n; i++) {
+                int size = items.getInt(pos);
+                pos += 4;
+                int end = pos + Math.max(size, 0);
+                gen.writeStartObject();
+                int field = 0;
+                for (int p = pos; p < end; field++) {
+                    int len = items.getInt(p);
+                    p += 4;
+                    if (len >= 0) {
+                        if (field == view.qtyField) {
+                            gen.writeNumberField("product_qty", items.getInt(p));
+                        } else if (field == view.paidField) {
+                            gen.writeNumberField("amount_paid", items.getDouble(p));
+                        } else if (field == view.codeField) {
+                            gen.writeFieldName("product_code");
+                            if (items.hasArray() && gen instanceof UTF8JsonGenerator)
+                                gen.writeUTF8String(items.array(), items.arrayOffset() + p, len);
+                            else
+                                gen.writeString(utf8(items, p, len));
+                        }
+                        p += len;
+                    }
+                }
+                gen.writeEndObject();
+                pos = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.strapdata.basketapp.model;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Elasticsearch mapping of a mapped Cassandra column or UDT field.
+ * Columns without this annotation are not indexed.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ElasticsearchField {
+
+    /**
+     * Elasticsearch field type (keyword, date, integer, double, nested...).
+     */
+    String type();
+
+    /**
+     * Whether the field is searchable.
+     */
+    boolean index() default true;
+
+    /**
+     * Whether the field has doc values for sorting and aggregations.
+     */
+    boolean docValues() default true;
+}
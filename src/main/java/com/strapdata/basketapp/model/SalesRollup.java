@@ -0,0 +1,55 @@
+package com.strapdata.basketapp.model;
+
+import com.datastax.driver.mapping.annotations.ClusteringColumn;
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.Table;
+import com.datastax.driver.mapping.annotations.Transient;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * Daily sales of a product in a store, counters updated by {@link com.strapdata.basketapp.SalesRollups}.
+ */
+@Table(name = "sales_rollup",
+    caseSensitiveKeyspace = false,
+    caseSensitiveTable = false)
+@Data
+@ToString(includeFieldNames=true)
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SalesRollup {
+
+    @PartitionKey(0)
+    @Column(name = "store_code")
+    @JsonProperty("store_code")
+    String storeCode;
+
+    // yyyy-MM-dd in UTC
+    @PartitionKey(1)
+    String day;
+
+    @ClusteringColumn(0)
+    @Column(name = "product_code")
+    @JsonProperty("product_code")
+    String productCode;
+
+    @Column(name = "basket_count")
+    @JsonProperty("basket_count")
+    Long basketCount;
+
+    Long quantity;
+
+    @Column(name = "amount_cents")
+    @JsonIgnore
+    Long amountCents;
+
+    @Transient
+    @JsonProperty("amount")
+    public Double getAmount() {
+        return amountCents == null ? null : amountCents / 100.0;
+    }
+}
@@ -0,0 +1,21 @@
+package com.strapdata.basketapp.model;
+
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.mapping.annotations.Accessor;
+import com.datastax.driver.mapping.annotations.Query;
+
+@Accessor
+public interface SalesRollupAccessor {
+
+    // statements are executed by the caller at the requested consistency level
+
+    @Query("SELECT * FROM sales_rollup WHERE store_code = ? AND day = ?")
+    Statement getByStoreAndDay(String storeCode, String day);
+
+    @Query("SELECT * FROM sales_rollup WHERE store_code = ? AND day = ? AND product_code = ?")
+    Statement getByStoreDayAndProduct(String storeCode, String day, String productCode);
+
+    @Query("UPDATE sales_rollup SET basket_count = basket_count + ?, quantity = quantity + ?, amount_cents = amount_cents + ? " +
+           "WHERE store_code = ? AND day = ? AND product_code = ?")
+    Statement increment(long basketCount, long quantity, long amountCents, String storeCode, String day, String productCode);
+}
@@ -2,6 +2,9 @@ package com.strapdata.basketapp.utils;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.strapdata.basketapp.config.StorageConfiguration;
 import io.micronaut.context.ApplicationContext;
 import io.micronaut.context.event.BeanCreatedEvent;
 import io.micronaut.context.event.BeanCreatedEventListener;
@@ -34,6 +37,15 @@ class ClusterBuilderListener implements BeanCreatedEventListener<Cluster.Builder
             builder.withSSL(elassandraSecurity.getSSLOptions().get());
             logger.info("SSL options succefully built");
         }
+
+        // keep requests in the local datacenter, routed to a replica
+        StorageConfiguration storageConfig = applicationContext.getBean(StorageConfiguration.class);
+        if (storageConfig.localDatacenter != null && !storageConfig.localDatacenter.isEmpty()) {
+            builder.withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder()
+                .withLocalDc(storageConfig.localDatacenter)
+                .build()));
+            logger.info("Cassandra local datacenter={}", storageConfig.localDatacenter);
+        }
         return builder;
     }
 }
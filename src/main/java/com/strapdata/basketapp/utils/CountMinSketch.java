@@ -0,0 +1,74 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Count-Min sketch of weighted string frequencies, in a fixed depth x width table.
+ * Estimates never underestimate, and overestimate by at most e/width of the total weight with probability 1 - e^-depth.
+ * Not thread safe.
+ */
+public class CountMinSketch {
+
+    static final HashFunction HASH = Hashing.murmur3_128();
+
+    final int depth;
+    final int width;
+    final double[][] counts;
+
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        this.counts = new double[depth][width];
+    }
+
+    // double hashing, bucket i = h1 + i * h2
+    int bucket(HashCode hash, int row) {
+        long h = hash.asLong();
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        return Math.floorMod(h1 + row * h2, width);
+    }
+
+    static HashCode hash(String item) {
+        return HASH.hashString(item, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Add weight to item.
+     * @param item
+     * @param weight
+     * @return the new estimate of item
+     */
+    public double add(String item, double weight) {
+        HashCode hash = hash(item);
+        double estimate = Double.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int bucket = bucket(hash, i);
+            counts[i][bucket] += weight;
+            estimate = Math.min(estimate, counts[i][bucket]);
+        }
+        return estimate;
+    }
+
+    public double estimate(String item) {
+        HashCode hash = hash(item);
+        double estimate = Double.MAX_VALUE;
+        for (int i = 0; i < depth; i++)
+            estimate = Math.min(estimate, counts[i][bucket(hash, i)]);
+        return estimate;
+    }
+
+    /**
+     * Multiply all counts by factor, to age out past windows.
+     * @param factor
+     */
+    public void decay(double factor) {
+        for (double[] row : counts)
+            for (int j = 0; j < width; j++)
+                row[j] *= factor;
+    }
+}
@@ -0,0 +1,93 @@
+package com.strapdata.basketapp.utils;
+
+import com.datastax.driver.mapping.annotations.Column;
+import com.datastax.driver.mapping.annotations.Field;
+import com.datastax.driver.mapping.annotations.PartitionKey;
+import com.datastax.driver.mapping.annotations.UDT;
+import com.strapdata.basketapp.model.ElasticsearchField;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Build an explicit Elassandra mapping from the {@link ElasticsearchField} annotations of a mapped class,
+ * so that only the annotated columns are indexed.
+ */
+public class ElasticsearchMapping {
+
+    /**
+     * Write the properties of the mapping of clazz.
+     * @param builder
+     * @param clazz a class annotated with @Table or @UDT
+     * @throws IOException
+     */
+    public static XContentBuilder properties(XContentBuilder builder, Class<?> clazz) throws IOException {
+        builder.startObject("properties");
+        for (java.lang.reflect.Field field : clazz.getDeclaredFields()) {
+            ElasticsearchField esField = field.getAnnotation(ElasticsearchField.class);
+            if (esField == null)
+                continue;
+
+            builder.startObject(columnName(field));
+            {
+                builder.field("type", esField.type());
+                builder.field("cql_collection", cqlCollection(field.getType()));
+
+                PartitionKey partitionKey = field.getAnnotation(PartitionKey.class);
+                if (partitionKey != null) {
+                    builder.field("cql_partition_key", true);
+                    builder.field("cql_primary_key_order", partitionKey.value());
+                }
+
+                if ("nested".equals(esField.type()) || "object".equals(esField.type())) {
+                    Class<?> udtClass = elementClass(field);
+                    UDT udt = udtClass.getAnnotation(UDT.class);
+                    if (udt == null)
+                        throw new IllegalArgumentException("Field " + field + " must be a UDT or a collection of UDT");
+                    builder.field("cql_struct", "udt");
+                    builder.field("cql_udt_name", udt.name());
+                    properties(builder, udtClass);
+                } else {
+                    if (!esField.index())
+                        builder.field("index", false);
+                    if (!esField.docValues())
+                        builder.field("doc_values", false);
+                }
+            }
+            builder.endObject();
+        }
+        return builder.endObject();
+    }
+
+    static String columnName(java.lang.reflect.Field field) {
+        Column column = field.getAnnotation(Column.class);
+        if (column != null && !column.name().isEmpty())
+            return column.name();
+        Field udtField = field.getAnnotation(Field.class);
+        if (udtField != null && !udtField.name().isEmpty())
+            return udtField.name();
+        return field.getName().toLowerCase();
+    }
+
+    static String cqlCollection(Class<?> type) {
+        if (List.class.isAssignableFrom(type))
+            return "list";
+        if (Set.class.isAssignableFrom(type))
+            return "set";
+        return "singleton";
+    }
+
+    static Class<?> elementClass(java.lang.reflect.Field field) {
+        if (!Collection.class.isAssignableFrom(field.getType()))
+            return field.getType();
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType)
+            return (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+        throw new IllegalArgumentException("Cannot resolve element type of " + field);
+    }
+}
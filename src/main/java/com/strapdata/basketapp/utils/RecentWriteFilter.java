@@ -0,0 +1,78 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.strapdata.basketapp.config.IdempotencyConfiguration;
+
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remember recently written keys to detect retried writes without a storage round trip.
+ * A Bloom filter rejects unknown keys cheaply, then a bounded LRU holds the content hash of the last successful
+ * write of a key, so a retry is only skipped when it carries the same content (128 bits digest).
+ */
+@Singleton
+public class RecentWriteFilter {
+
+    final IdempotencyConfiguration config;
+    final Cache<String, HashCode> outcomes;
+
+    // two generations of Bloom filters, the previous one is dropped when the current one is full
+    BloomFilter<CharSequence> current;
+    BloomFilter<CharSequence> previous;
+    long insertions = 0;
+
+    public RecentWriteFilter(IdempotencyConfiguration config) {
+        this.config = config;
+        this.outcomes = CacheBuilder.newBuilder()
+            .maximumSize(config.outcomeCacheSize)
+            .expireAfterWrite(config.outcomeTtl.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+        this.current = newBloomFilter();
+        this.previous = newBloomFilter();
+    }
+
+    BloomFilter<CharSequence> newBloomFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), config.expectedInsertions, config.falsePositiveProbability);
+    }
+
+    /**
+     * @param key idempotency key
+     * @param contentHash digest of the written content
+     * @return true if the same content was recently written with this key
+     */
+    public boolean isDuplicate(String key, HashCode contentHash) {
+        if (!config.enabled || key == null)
+            return false;
+        synchronized (this) {
+            if (!current.mightContain(key) && !previous.mightContain(key))
+                return false;
+        }
+        HashCode hash = outcomes.getIfPresent(key);
+        return hash != null && hash.equals(contentHash);
+    }
+
+    /**
+     * Record a successful write.
+     * @param key
+     * @param contentHash
+     */
+    public void recordWrite(String key, HashCode contentHash) {
+        if (!config.enabled || key == null)
+            return;
+        synchronized (this) {
+            if (++insertions > config.expectedInsertions) {
+                previous = current;
+                current = newBloomFilter();
+                insertions = 1;
+            }
+            current.put(key);
+        }
+        outcomes.put(key, contentHash);
+    }
+}
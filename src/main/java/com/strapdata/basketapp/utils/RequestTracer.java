@@ -0,0 +1,265 @@
+package com.strapdata.basketapp.utils;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import com.strapdata.basketapp.ElassandraStorage;
+import com.strapdata.basketapp.config.TracingConfiguration;
+import io.micronaut.http.context.ServerRequestContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Request scoped tracing of slow HTTP requests, searches and CQL statements.
+ * Slow events are logged as JSON to the basketapp.slowlog logger and kept in a ring buffer.
+ * A trace id, received or generated by {@link TraceFilter}, correlates the events of a request.
+ */
+@Singleton
+public class RequestTracer implements LatencyTracker {
+    private static final Logger logger = LoggerFactory.getLogger(RequestTracer.class);
+    private static final Logger slowlog = LoggerFactory.getLogger("basketapp.slowlog");
+
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+    public static final String TRACE_ID_ATTRIBUTE = "basketapp.trace.id";
+
+    static final int MAX_VALUE_LENGTH = 128;
+
+    final TracingConfiguration config;
+    final ElassandraStorage storage;
+    final ObjectMapper jsonMapper = new ObjectMapper();
+    final RingBuffer<TraceEvent> events;
+    // replays of slow searches with the profile API, bounded to not double the load of a slow cluster
+    final RateLimiter profileRateLimiter;
+
+    // trace id of statements being executed, by identity
+    final Cache<Statement, String> statementTraceIds = CacheBuilder.newBuilder()
+        .weakKeys()
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build();
+
+    public RequestTracer(TracingConfiguration config, ElassandraStorage storage, Cluster cluster) {
+        this.config = config;
+        this.storage = storage;
+        this.events = new RingBuffer<>(config.ringBufferSize);
+        this.profileRateLimiter = RateLimiter.create(config.profileRate > 0 ? config.profileRate : 1.0);
+        // slow statements are recorded with their bound values by this latency tracker, not by the driver QueryLogger
+        if (config.enabled)
+            cluster.register(this);
+    }
+
+    /**
+     * @return the trace id of the HTTP request being processed by this thread, if any
+     */
+    public static String currentTraceId() {
+        return ServerRequestContext.currentRequest()
+            .flatMap(request -> request.getAttribute(TRACE_ID_ATTRIBUTE, String.class))
+            .orElse(null);
+    }
+
+    public boolean isEnabled() {
+        return config.enabled;
+    }
+
+    public List<TraceEvent> events() {
+        return events.snapshot();
+    }
+
+    public void record(TraceEvent event) {
+        events.add(event);
+        if (slowlog.isInfoEnabled()) {
+            try {
+                slowlog.info(jsonMapper.writeValueAsString(event));
+            } catch (Exception e) {
+                logger.warn("failed to log trace event:", e);
+            }
+        }
+    }
+
+    /**
+     * Tag a statement with the trace id of the current request, and enable Cassandra tracing if sampled.
+     * @param statement
+     * @return the statement
+     */
+    public <S extends Statement> S tag(S statement) {
+        return tag(statement, currentTraceId());
+    }
+
+    /**
+     * Tag a statement with a trace id, and enable Cassandra tracing if sampled.
+     * @param statement
+     * @param traceId trace id of the request executing the statement, or null for background jobs
+     * @return the statement
+     */
+    public <S extends Statement> S tag(S statement, String traceId) {
+        if (!config.enabled)
+            return statement;
+        if (traceId != null)
+            statementTraceIds.put(statement, traceId);
+        if (config.cassandraTracingRate > 0 && ThreadLocalRandom.current().nextDouble() < config.cassandraTracingRate)
+            statement.enableTracing();
+        return statement;
+    }
+
+    /**
+     * Start tracing a search of the current request.
+     * @param operation
+     * @param esQuery
+     * @return
+     */
+    public Span search(String operation, String esQuery) {
+        return new Span(currentTraceId(), operation, esQuery);
+    }
+
+    /**
+     * A traced search: CQL execution, then mapping of the rows.
+     */
+    public class Span {
+        final String traceId;
+        final String operation;
+        final String esQuery;
+        final long startNanos = System.nanoTime();
+
+        Span(String traceId, String operation, String esQuery) {
+            this.traceId = traceId;
+            this.operation = operation;
+            this.esQuery = esQuery;
+        }
+
+        /**
+         * Tag a statement with the trace id, and enable Cassandra tracing if sampled.
+         * @param statement
+         * @return
+         */
+        public Statement statement(Statement statement) {
+            return tag(statement, traceId);
+        }
+
+        /**
+         * Map the result set and record the search if slow.
+         * @param rs
+         * @param mapper
+         * @return
+         */
+        public <T> List<T> map(ResultSet rs, Function<ResultSet, List<T>> mapper) {
+            long executedNanos = System.nanoTime();
+            List<T> result = mapper.apply(rs);
+            long mappedNanos = System.nanoTime();
+            if (config.enabled && mappedNanos - startNanos > config.slowRequestThreshold.toNanos()) {
+                TraceEvent event = new TraceEvent();
+                event.traceId = traceId;
+                event.kind = TraceEvent.Kind.SEARCH;
+                event.operation = operation;
+                event.durationMs = millis(mappedNanos - startNanos);
+                event.executeMs = millis(executedNanos - startNanos);
+                event.mapMs = millis(mappedNanos - executedNanos);
+                event.rows = result.size();
+                event.esQuery = esQuery;
+                ExecutionInfo info = rs.getExecutionInfo();
+                if (info.getQueriedHost() != null)
+                    event.coordinator = info.getQueriedHost().getAddress().toString();
+                if (info.getQueryTrace() != null)
+                    event.cassandraTraceId = info.getQueryTrace().getTraceId().toString();
+                record(event);
+                if (esQuery != null && config.elasticsearchProfile && config.profileRate > 0 && profileRateLimiter.tryAcquire())
+                    profile(event);
+            }
+            return result;
+        }
+    }
+
+    // replay the search with the Elasticsearch profile API and attach the profile to the event.
+    void profile(TraceEvent event) {
+        try {
+            ObjectNode query = (ObjectNode) jsonMapper.readTree(event.esQuery);
+            query.put("profile", true);
+            storage.getElasticsearchClient().getLowLevelClient().performRequestAsync("POST", "/" + ElassandraStorage.INDEX_ALIAS + "/_search",
+                Collections.emptyMap(), new NStringEntity(jsonMapper.writeValueAsString(query), ContentType.APPLICATION_JSON),
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        try {
+                            event.esProfile = jsonMapper.readTree(EntityUtils.toString(response.getEntity())).path("profile").toString();
+                            slowlog.info("{\"trace_id\":{},\"es_profile\":{}}", jsonMapper.writeValueAsString(event.traceId), event.esProfile);
+                        } catch (Exception e) {
+                            logger.warn("failed to read search profile:", e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        logger.warn("failed to profile search:", e);
+                    }
+                });
+        } catch (Exception e) {
+            logger.warn("failed to profile search:", e);
+        }
+    }
+
+    @Override
+    public void update(Host host, Statement statement, Exception exception, long newLatencyNanos) {
+        if (newLatencyNanos < config.slowQueryThreshold.toNanos())
+            return;
+        TraceEvent event = new TraceEvent();
+        event.traceId = statementTraceIds.getIfPresent(statement);
+        event.kind = TraceEvent.Kind.CQL;
+        event.durationMs = millis(newLatencyNanos);
+        event.coordinator = host.getAddress().toString();
+        if (statement instanceof BoundStatement) {
+            BoundStatement bound = (BoundStatement) statement;
+            event.cql = bound.preparedStatement().getQueryString();
+            event.boundValues = boundValues(bound);
+        } else if (statement instanceof RegularStatement) {
+            event.cql = ((RegularStatement) statement).getQueryString();
+        } else {
+            event.cql = statement.toString();
+        }
+        if (exception != null)
+            event.error = exception.toString();
+        record(event);
+    }
+
+    static List<String> boundValues(BoundStatement bound) {
+        int size = bound.preparedStatement().getVariables().size();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String value = bound.isSet(i) ? String.valueOf(bound.getObject(i)) : "<unset>";
+            values.add(value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) + "..." : value);
+        }
+        return values;
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    @Override
+    public void onRegister(Cluster cluster) {
+    }
+
+    @Override
+    public void onUnregister(Cluster cluster) {
+    }
+}
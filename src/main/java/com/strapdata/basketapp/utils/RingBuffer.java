@@ -0,0 +1,39 @@
+package com.strapdata.basketapp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size lock-free buffer of the last added elements.
+ * @param <T>
+ */
+public class RingBuffer<T> {
+
+    final AtomicReferenceArray<T> elements;
+    final AtomicLong sequence = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        this.elements = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void add(T element) {
+        elements.set((int) (sequence.getAndIncrement() % elements.length()), element);
+    }
+
+    /**
+     * @return the buffered elements, newest first
+     */
+    public List<T> snapshot() {
+        long last = sequence.get();
+        int size = (int) Math.min(last, elements.length());
+        List<T> snapshot = new ArrayList<>(size);
+        for (long i = last - 1; i >= last - size; i--) {
+            T element = elements.get((int) (i % elements.length()));
+            if (element != null)
+                snapshot.add(element);
+        }
+        return snapshot;
+    }
+}
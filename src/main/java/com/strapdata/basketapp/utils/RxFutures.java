@@ -0,0 +1,56 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+
+/**
+ * Adapt listenable futures to RxJava without blocking the subscribing thread,
+ * unlike Completable.fromFuture and Single.fromFuture which wait for the result with Future.get().
+ * Callbacks run on the thread completing the future (e.g. a driver I/O thread) and must not block.
+ */
+public final class RxFutures {
+
+    private RxFutures() {
+    }
+
+    public static Completable completable(ListenableFuture<?> future) {
+        return Completable.create(emitter -> {
+            emitter.setCancellable(() -> future.cancel(false));
+            Futures.addCallback(future, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    emitter.onComplete();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    emitter.tryOnError(t);
+                }
+            }, MoreExecutors.directExecutor());
+        });
+    }
+
+    public static <T> Single<T> single(ListenableFuture<T> future) {
+        return Single.create(emitter -> {
+            emitter.setCancellable(() -> future.cancel(false));
+            Futures.addCallback(future, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    if (result == null)
+                        emitter.tryOnError(new NullPointerException("future returned null"));
+                    else
+                        emitter.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    emitter.tryOnError(t);
+                }
+            }, MoreExecutors.directExecutor());
+        });
+    }
+}
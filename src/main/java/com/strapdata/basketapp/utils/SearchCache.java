@@ -0,0 +1,226 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.strapdata.basketapp.ElassandraStorage;
+import com.strapdata.basketapp.config.ElasticsearchIndexConfiguration;
+import com.strapdata.basketapp.config.SearchCacheConfiguration;
+import com.strapdata.basketapp.model.Basket;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache search results by Elasticsearch query for a short time.
+ * Entries filtered on a store are invalidated by writes to that store, entries without store filter by any write.
+ * A write only becomes searchable at the next index refresh: a result is not cached if its store was written
+ * less than a refresh window before the search started, so that a search missing a recent write is never cached.
+ */
+@Singleton
+public class SearchCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchCache.class);
+
+    // estimated heap size of a cached basket and of an item
+    static final int BASKET_WEIGHT = 256;
+    static final int ITEM_WEIGHT = 96;
+
+    // added to the refresh interval for the refresh to complete
+    static final long REFRESH_MARGIN_MS = 1000;
+
+    // key of queries without store filter
+    static final String ANY_STORE = "";
+
+    final SearchCacheConfiguration config;
+    final Cache<String, Entry> cache;
+    final long refreshWindowMs;
+    // time (ms) from which all documents written before are searchable, see ElassandraStorage#searchableSince
+    final LongSupplier searchableSince;
+    final LongSupplier clock;
+
+    // cached queries per store, removed with their last query
+    final ConcurrentMap<String, Set<String>> queriesByStore = new ConcurrentHashMap<>();
+
+    // time of the last write per store, tracked for a refresh window
+    final Cache<String, Long> lastWrites;
+    // last write of the stores evicted from lastWrites, or of invalidateAll, applying to any store
+    final AtomicLong globalWrite = new AtomicLong(Long.MIN_VALUE);
+
+    // store of the baskets in cached results, to invalidate the previous store of a basket moved to another one
+    final Cache<UUID, String> storeById;
+
+    static class Entry {
+        final String storeKey;
+        final List<Basket> baskets;
+
+        Entry(String storeKey, List<Basket> baskets) {
+            this.storeKey = storeKey;
+            this.baskets = baskets;
+        }
+
+        int weight() {
+            int weight = BASKET_WEIGHT;
+            for (Basket basket : baskets)
+                weight += BASKET_WEIGHT + (basket.getItems() == null ? 0 : basket.getItems().size() * ITEM_WEIGHT);
+            return weight;
+        }
+    }
+
+    @Inject
+    public SearchCache(SearchCacheConfiguration config, ElasticsearchIndexConfiguration indexConfig, ElassandraStorage storage) {
+        this(config, refreshWindow(indexConfig), storage::searchableSince, System::currentTimeMillis);
+    }
+
+    SearchCache(SearchCacheConfiguration config, long refreshWindowMs, LongSupplier searchableSince, LongSupplier clock) {
+        this.config = config;
+        this.refreshWindowMs = refreshWindowMs;
+        this.searchableSince = searchableSince;
+        this.clock = clock;
+        this.cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(config.ttl.toMillis(), TimeUnit.MILLISECONDS)
+            .maximumWeight(config.maximumWeight)
+            .<String, Entry>weigher((query, entry) -> entry.weight())
+            .removalListener((RemovalNotification<String, Entry> notification) -> {
+                if (notification.getCause() == RemovalCause.REPLACED)
+                    return;
+                queriesByStore.computeIfPresent(notification.getValue().storeKey, (k, queries) -> {
+                    queries.remove(notification.getKey());
+                    return queries.isEmpty() ? null : queries;
+                });
+            })
+            .build();
+        this.lastWrites = CacheBuilder.newBuilder()
+            .expireAfterWrite(Math.max(refreshWindowMs, 1), TimeUnit.MILLISECONDS)
+            .maximumSize(config.maxStores)
+            .removalListener((RemovalNotification<String, Long> notification) -> {
+                // a store evicted within its refresh window must still prevent caching
+                if (notification.getCause() == RemovalCause.SIZE)
+                    globalWrite.accumulateAndGet(notification.getValue(), Math::max);
+            })
+            .build();
+        this.storeById = CacheBuilder.newBuilder()
+            .expireAfterWrite(config.ttl.toMillis(), TimeUnit.MILLISECONDS)
+            .maximumSize(Math.max(1, config.maximumWeight / BASKET_WEIGHT))
+            .build();
+    }
+
+    // refresh interval of the index plus a margin, searches are never cached if refresh is disabled
+    static long refreshWindow(ElasticsearchIndexConfiguration indexConfig) {
+        if (indexConfig.synchronousRefresh)
+            return REFRESH_MARGIN_MS;
+        long interval = TimeValue.parseTimeValue(indexConfig.refreshInterval, "refresh_interval").millis();
+        if (interval < 0) {
+            logger.warn("Elasticsearch refresh is disabled, search results are not cached");
+            return Long.MAX_VALUE;
+        }
+        return interval + REFRESH_MARGIN_MS;
+    }
+
+    static String storeKey(String storeCode) {
+        return storeCode == null ? ANY_STORE : storeCode;
+    }
+
+    /**
+     * @return the start time of a search, to provide to {@link #put}
+     */
+    public long startSearch() {
+        return clock.getAsLong();
+    }
+
+    public List<Basket> get(String esQuery) {
+        if (!config.enabled)
+            return null;
+        Entry entry = cache.getIfPresent(esQuery);
+        return entry == null ? null : entry.baskets;
+    }
+
+    /**
+     * Cache a search result, unless a write to its store may not have been searchable when the search started.
+     * @param storeCode
+     * @param esQuery
+     * @param searchStart
+     * @param baskets
+     */
+    public void put(String storeCode, String esQuery, long searchStart, List<Basket> baskets) {
+        if (!config.enabled || !isCacheable(storeKey(storeCode), searchStart))
+            return;
+        String storeKey = storeKey(storeCode);
+        // added atomically with the removal of the last query of the store
+        queriesByStore.compute(storeKey, (k, queries) -> {
+            if (queries == null)
+                queries = ConcurrentHashMap.newKeySet();
+            queries.add(esQuery);
+            return queries;
+        });
+        for (Basket basket : baskets)
+            if (basket.getId() != null && basket.getStoreCode() != null)
+                storeById.put(basket.getId(), basket.getStoreCode());
+        cache.put(esQuery, new Entry(storeKey, Collections.unmodifiableList(baskets)));
+        // written while being cached
+        if (!isCacheable(storeKey, searchStart))
+            cache.invalidate(esQuery);
+    }
+
+    boolean isCacheable(String storeKey, long searchStart) {
+        if (refreshWindowMs == Long.MAX_VALUE || searchableSince.getAsLong() > searchStart)
+            return false;
+        Long lastWrite = lastWrites.getIfPresent(storeKey);
+        long written = Math.max(globalWrite.get(), lastWrite == null ? Long.MIN_VALUE : lastWrite);
+        return written == Long.MIN_VALUE || written + refreshWindowMs < searchStart;
+    }
+
+    /**
+     * Invalidate searches possibly matching a written basket, including searches of its previous store
+     * when a cached result shows it in another store.
+     * @param basket
+     */
+    public void invalidateBasket(Basket basket) {
+        if (!config.enabled)
+            return;
+        invalidateStore(basket.getStoreCode());
+        if (basket.getId() != null) {
+            String previousStore = storeById.getIfPresent(basket.getId());
+            if (previousStore != null && !previousStore.equals(basket.getStoreCode()))
+                invalidate(previousStore);
+        }
+    }
+
+    /**
+     * Invalidate searches possibly matching a basket written to this store.
+     * @param storeCode
+     */
+    public void invalidateStore(String storeCode) {
+        if (!config.enabled)
+            return;
+        invalidate(storeKey(storeCode));
+        if (storeCode != null)
+            invalidate(ANY_STORE);
+    }
+
+    void invalidate(String storeKey) {
+        lastWrites.put(storeKey, clock.getAsLong());
+        Set<String> queries = queriesByStore.get(storeKey);
+        if (queries != null)
+            cache.invalidateAll(queries);
+    }
+
+    public void invalidateAll() {
+        globalWrite.accumulateAndGet(clock.getAsLong(), Math::max);
+        cache.invalidateAll();
+        storeById.invalidateAll();
+    }
+}
@@ -0,0 +1,87 @@
+package com.strapdata.basketapp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted Space-Saving summary tracking the k heaviest items of a stream in O(k) memory.
+ * Any item heavier than total/k is tracked, its count overestimates it by at most its error.
+ * Not thread safe.
+ */
+public class SpaceSaving {
+
+    public static class Counter {
+        final String item;
+        double count;
+        double error;
+
+        Counter(String item, double count, double error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        public double getCount() {
+            return count;
+        }
+
+        public double getError() {
+            return error;
+        }
+    }
+
+    final int capacity;
+    final Map<String, Counter> counters;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String item, double weight) {
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            counter.count += weight;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(item, new Counter(item, weight, 0));
+            return;
+        }
+        // replace the lightest item, the new one inherits its count as error
+        Counter min = null;
+        for (Counter c : counters.values())
+            if (min == null || c.count < min.count)
+                min = c;
+        counters.remove(min.item);
+        counters.put(item, new Counter(item, min.count + weight, min.count));
+    }
+
+    /**
+     * @param n
+     * @return the n heaviest tracked items, heaviest first
+     */
+    public List<Counter> top(int n) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparingDouble(Counter::getCount).reversed());
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    public List<Counter> counters() {
+        return new ArrayList<>(counters.values());
+    }
+
+    public void decay(double factor) {
+        for (Counter c : counters.values()) {
+            c.count *= factor;
+            c.error *= factor;
+        }
+    }
+}
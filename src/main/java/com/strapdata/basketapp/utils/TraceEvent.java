@@ -0,0 +1,61 @@
+package com.strapdata.basketapp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A slow HTTP request, search or CQL statement.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TraceEvent {
+
+    public enum Kind { HTTP, SEARCH, CQL }
+
+    Date timestamp = new Date();
+
+    @JsonProperty("trace_id")
+    String traceId;
+
+    Kind kind;
+
+    // HTTP method and path, or search operation
+    String operation;
+
+    @JsonProperty("duration_ms")
+    double durationMs;
+
+    Integer status;
+
+    String cql;
+
+    @JsonProperty("bound_values")
+    List<String> boundValues;
+
+    String coordinator;
+
+    // time spent in the CQL execution (Elasticsearch query + primary key fetches) and in mapping rows
+    @JsonProperty("execute_ms")
+    Double executeMs;
+
+    @JsonProperty("map_ms")
+    Double mapMs;
+
+    Integer rows;
+
+    @JsonProperty("cassandra_trace_id")
+    String cassandraTraceId;
+
+    @JsonProperty("es_query")
+    String esQuery;
+
+    // Elasticsearch profile of the replayed query, set asynchronously
+    @JsonProperty("es_profile")
+    volatile String esProfile;
+
+    String error;
+}
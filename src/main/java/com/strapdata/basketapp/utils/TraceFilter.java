@@ -0,0 +1,52 @@
+package com.strapdata.basketapp.utils;
+
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.HttpServerFilter;
+import io.micronaut.http.filter.ServerFilterChain;
+import io.reactivex.Flowable;
+import org.reactivestreams.Publisher;
+
+import java.util.UUID;
+
+/**
+ * Propagate or generate the trace id of a request, and record slow requests.
+ */
+@Filter("/basketapp/**")
+public class TraceFilter implements HttpServerFilter {
+
+    final RequestTracer tracer;
+
+    public TraceFilter(RequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Publisher<MutableHttpResponse<?>> doFilter(HttpRequest<?> request, ServerFilterChain chain) {
+        if (!tracer.isEnabled())
+            return chain.proceed(request);
+
+        String traceId = request.getHeaders().get(RequestTracer.TRACE_ID_HEADER);
+        if (traceId == null || traceId.isEmpty())
+            traceId = UUID.randomUUID().toString();
+        request.setAttribute(RequestTracer.TRACE_ID_ATTRIBUTE, traceId);
+
+        String id = traceId;
+        long start = System.nanoTime();
+        return Flowable.fromPublisher(chain.proceed(request))
+            .doOnNext(response -> {
+                response.header(RequestTracer.TRACE_ID_HEADER, id);
+                long duration = System.nanoTime() - start;
+                if (duration > tracer.config.slowRequestThreshold.toNanos()) {
+                    TraceEvent event = new TraceEvent();
+                    event.traceId = id;
+                    event.kind = TraceEvent.Kind.HTTP;
+                    event.operation = request.getMethod() + " " + request.getPath();
+                    event.durationMs = RequestTracer.millis(duration);
+                    event.status = response.getStatus().getCode();
+                    tracer.record(event);
+                }
+            });
+    }
+}
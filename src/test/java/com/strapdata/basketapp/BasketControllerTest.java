@@ -3,16 +3,26 @@ package com.strapdata.basketapp;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 import com.strapdata.basketapp.controllers.BasketController;
+import com.strapdata.basketapp.controllers.ExportController;
+import com.strapdata.basketapp.controllers.SalesController;
 import com.strapdata.basketapp.model.Basket;
 import com.strapdata.basketapp.model.BasketItem;
+import com.strapdata.basketapp.model.BasketSearch;
 import com.strapdata.basketapp.model.BasketStatus;
+import com.strapdata.basketapp.model.BasketView;
+import com.strapdata.basketapp.model.SalesRollup;
 import io.micronaut.context.ApplicationContext;
+import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
 import io.micronaut.http.client.RxHttpClient;
+import io.micronaut.http.client.multipart.MultipartBody;
 import io.micronaut.runtime.server.EmbeddedServer;
 import io.micronaut.test.annotation.MicronautTest;
 import org.cassandraunit.ElassandraCQLUnit5;
+import org.elasticsearch.search.sort.SortOrder;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -24,11 +34,14 @@ import org.junit.jupiter.api.extension.ExtensionContext;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @MicronautTest
@@ -103,23 +116,150 @@ public class BasketControllerTest implements BeforeEachCallback, AfterEachCallba
         }
     }
 
+    @Test
+    public void testSwaggerEtag() throws Exception {
+        try(RxHttpClient client = server.getApplicationContext().createBean(RxHttpClient.class, server.getURL())) {
+            HttpResponse<String> response = client.toBlocking().exchange(HttpRequest.GET("/swagger/"), String.class);
+            assertEquals(HttpStatus.OK, response.status());
+            String etag = response.getHeaders().get(HttpHeaders.ETAG);
+            assertTrue(etag != null);
+            assertEquals(HttpStatus.NOT_MODIFIED, client.toBlocking().exchange(HttpRequest.GET("/swagger/").header(HttpHeaders.IF_NONE_MATCH, etag)).status());
+        }
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        List<Basket> baskets = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            baskets.add(DEMO_BASKET2.withId(UUID.randomUUID()).withStoreCode(Integer.toString(i % 3)));
+        MultipartBody body = MultipartBody.builder()
+            .addPart("file", "baskets.json", MediaType.APPLICATION_JSON_TYPE, mapper.writeValueAsBytes(baskets))
+            .build();
+        try(RxHttpClient client = server.getApplicationContext().createBean(RxHttpClient.class, server.getURL())) {
+            assertEquals(HttpStatus.OK, client.toBlocking().exchange(HttpRequest.POST("/basketapp/basket/", body)
+                .contentType(MediaType.MULTIPART_FORM_DATA_TYPE)).status());
+        }
+
+        BasketController controller = server.getApplicationContext().getBean(BasketController.class);
+        for (Basket basket : baskets)
+            assertEquals(basket.withComputedTotalPaid(), controller.getById(basket.getId(), null).blockingGet());
+    }
+
+    @Test
+    public void testIdempotentInsert() {
+        BasketController controller = server.getApplicationContext().getBean(BasketController.class);
+        Basket basket = DEMO_BASKET1.withId(UUID.randomUUID());
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(basket, "retry-1", null).blockingGet());
+        assertEquals(basket.withComputedTotalPaid(), controller.getById(basket.getId(), null).blockingGet());
+
+        // a retry with the same key and content is acknowledged without being written
+        storage.getMapper(Basket.class).delete(basket.getId());
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(basket, "retry-1", null).blockingGet());
+        assertNull(controller.getById(basket.getId(), null).blockingGet());
+
+        // changed content with the same key is written
+        Basket changed = basket.withStoreCode("2");
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(changed, "retry-1", null).blockingGet());
+        assertEquals(changed.withComputedTotalPaid(), controller.getById(basket.getId(), null).blockingGet());
+    }
+
     @Test
     public void testElassandraStorage() {
         storage.getMapper(Basket.class).save(DEMO_BASKET1);
         storage.getMapper(Basket.class).save(DEMO_BASKET2);
 
         BasketController controller = server.getApplicationContext().getBean(BasketController.class);
-        Basket basket = controller.getById(DEMO_BASKET1.getId()).blockingGet();
+        Basket basket = controller.getById(DEMO_BASKET1.getId(), null).blockingGet();
         assertEquals(DEMO_BASKET1, basket);
 
-        List<Basket> basketWithProduct1 = controller.getByStoreAndProduct(null,"1").blockingGet();
+        List<Basket> basketWithProduct1 = controller.getByStoreAndProduct(null,"1", null, null, null, null, null, null, null, null).blockingGet();
         assertEquals(2, basketWithProduct1.size());
         assertTrue( basketWithProduct1.contains(DEMO_BASKET1));
         assertTrue( basketWithProduct1.contains(DEMO_BASKET2));
 
-        List<Basket> basketWithProduct2 = controller.getByStoreAndProduct("1","2").blockingGet();
+        List<Basket> basketWithProduct2 = controller.getByStoreAndProduct("1","2", null, null, null, null, null, null, null, null).blockingGet();
         assertEquals(1, basketWithProduct2.size());
         assertTrue( basketWithProduct2.contains(DEMO_BASKET1));
     }
 
+    @Test
+    public void testSearchFilters() {
+        Basket basket1 = DEMO_BASKET1.withComputedTotalPaid();
+        Basket basket2 = DEMO_BASKET2.withComputedTotalPaid();
+        assertEquals(Double.valueOf(6.0), basket1.getTotalPaid());
+        storage.getMapper(Basket.class).save(basket1);
+        storage.getMapper(Basket.class).save(basket2);
+
+        BasketController controller = server.getApplicationContext().getBean(BasketController.class);
+        List<Basket> expensive = controller.getByStoreAndProduct("1", "1", BasketStatus.Finished, "now-1d", null, 5.0, null, null, null, null).blockingGet();
+        assertEquals(1, expensive.size());
+        assertTrue(expensive.contains(basket1));
+
+        List<Basket> sorted = controller.getByStoreAndProduct("1", null, null, null, "now+1d", null, null,
+            BasketSearch.SortField.TOTAL_PAID, SortOrder.DESC, null).blockingGet();
+        assertEquals(2, sorted.size());
+        assertEquals(basket1, sorted.get(0));
+        assertEquals(basket2, sorted.get(1));
+
+        List<Basket> canceled = controller.getByStoreAndProduct("1", null, BasketStatus.Canceled, null, null, null, null, null, null, null).blockingGet();
+        assertTrue(canceled.isEmpty());
+    }
+
+    @Test
+    public void testBasketView() throws IOException {
+        storage.getMapper(Basket.class).save(DEMO_BASKET1);
+
+        BasketController controller = server.getApplicationContext().getBean(BasketController.class);
+        BasketView view = controller.getViewById(DEMO_BASKET1.getId(), null).blockingGet();
+        assertEquals(3, view.itemCount());
+        assertArrayEquals(new int[] { 1, 2, 3 }, view.quantities());
+        assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, view.amountsPaid());
+        assertEquals("2", view.productCode(1));
+
+        Basket basket = mapper.readValue(mapper.writeValueAsString(view), Basket.class);
+        assertEquals(DEMO_BASKET1, basket);
+    }
+
+    @Test
+    public void testExport() {
+        storage.getMapper(Basket.class).save(DEMO_BASKET1);
+        storage.getMapper(Basket.class).save(DEMO_BASKET2);
+
+        ExportController controller = server.getApplicationContext().getBean(ExportController.class);
+        List<String> lines = controller.exportNdjson(null, true).toList().blockingGet();
+        assertEquals(2, lines.stream().filter(line -> line.startsWith("{\"id\"")).count());
+        assertTrue(lines.get(lines.size() - 1).startsWith("{\"checkpoint\""));
+
+        // resuming after the first checkpoint exports the remaining baskets only
+        int first = 0;
+        while (!lines.get(first).startsWith("{\"checkpoint\""))
+            first++;
+        String token = lines.get(first).substring("{\"checkpoint\":\"".length(), lines.get(first).length() - "\"}\n".length());
+        List<String> resumed = controller.exportNdjson(token, false).toList().blockingGet();
+        assertEquals(2, first + resumed.size());
+
+        List<String> csv = controller.exportCsv(null, false).toList().blockingGet();
+        assertEquals(1 + 3 + 1, String.join("", csv).split("\n").length);
+    }
+
+    @Test
+    public void testSalesRollup() {
+        BasketController controller = server.getApplicationContext().getBean(BasketController.class);
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(DEMO_BASKET1, null, null).blockingGet());
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(DEMO_BASKET2, null, null).blockingGet());
+        // a rewrite of a finished basket is not counted again
+        assertEquals(HttpStatus.ACCEPTED, controller.insert(DEMO_BASKET1.withTotalPaid(7.0), null, null).blockingGet());
+        server.getApplicationContext().getBean(SalesRollups.class).flush();
+
+        String day = SalesRollups.day(DEMO_BASKET1.getProcessingDate());
+        SalesController salesController = server.getApplicationContext().getBean(SalesController.class);
+        List<SalesRollup> rollups = salesController.daily("1", day, null, null).blockingGet();
+        assertEquals(3, rollups.size());
+
+        SalesRollup product1 = salesController.daily("1", day, "1", null).blockingGet().get(0);
+        assertEquals(Long.valueOf(2), product1.getBasketCount());
+        assertEquals(Long.valueOf(2), product1.getQuantity());
+        assertEquals(Double.valueOf(2.0), product1.getAmount());
+    }
+
 }
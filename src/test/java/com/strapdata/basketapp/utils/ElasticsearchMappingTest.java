@@ -0,0 +1,39 @@
+package com.strapdata.basketapp.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.strapdata.basketapp.model.Basket;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ElasticsearchMappingTest {
+
+    @Test
+    public void testBasketMapping() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        ElasticsearchMapping.properties(builder, Basket.class);
+        builder.endObject();
+
+        JsonNode properties = new ObjectMapper().readTree(builder.string()).get("properties");
+        assertEquals("keyword", properties.at("/store_code/type").asText());
+        assertEquals("keyword", properties.at("/basket_status/type").asText());
+        assertEquals("date", properties.at("/processing_date/type").asText());
+        assertTrue(properties.at("/id/cql_partition_key").asBoolean());
+
+        assertEquals("nested", properties.at("/items/type").asText());
+        assertEquals("list", properties.at("/items/cql_collection").asText());
+        assertEquals("basket_item", properties.at("/items/cql_udt_name").asText());
+        assertEquals("keyword", properties.at("/items/properties/product_code/type").asText());
+        assertFalse(properties.at("/items/properties/amount_paid/index").asBoolean(true));
+
+        assertFalse(properties.has("es_query"));
+        assertFalse(properties.has("es_options"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.strapdata.basketapp.config.IdempotencyConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecentWriteFilterTest {
+
+    static HashCode hash(String content) {
+        return Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDuplicate() {
+        RecentWriteFilter filter = new RecentWriteFilter(new IdempotencyConfiguration());
+        assertFalse(filter.isDuplicate("key:1", hash("a")));
+
+        filter.recordWrite("key:1", hash("a"));
+        assertTrue(filter.isDuplicate("key:1", hash("a")));
+        assertFalse(filter.isDuplicate("key:1", hash("b")));
+        assertFalse(filter.isDuplicate("id:1", hash("a")));
+        assertFalse(filter.isDuplicate(null, hash("a")));
+
+        // the last write of a key wins
+        filter.recordWrite("key:1", hash("b"));
+        assertTrue(filter.isDuplicate("key:1", hash("b")));
+        assertFalse(filter.isDuplicate("key:1", hash("a")));
+    }
+
+    @Test
+    public void testRotation() {
+        IdempotencyConfiguration config = new IdempotencyConfiguration();
+        config.expectedInsertions = 10;
+        RecentWriteFilter filter = new RecentWriteFilter(config);
+        for (int i = 0; i < 15; i++)
+            filter.recordWrite("key:" + i, hash(Integer.toString(i)));
+
+        // keys of the previous generation are still found
+        for (int i = 0; i < 15; i++)
+            assertTrue(filter.isDuplicate("key:" + i, hash(Integer.toString(i))));
+
+        // keys are forgotten once their generation is dropped
+        for (int i = 15; i < 25; i++)
+            filter.recordWrite("key:" + i, hash(Integer.toString(i)));
+        assertFalse(filter.isDuplicate("key:0", hash("0")));
+    }
+
+    @Test
+    public void testDisabled() {
+        IdempotencyConfiguration config = new IdempotencyConfiguration();
+        config.enabled = false;
+        RecentWriteFilter filter = new RecentWriteFilter(config);
+        filter.recordWrite("key:1", hash("a"));
+        assertFalse(filter.isDuplicate("key:1", hash("a")));
+    }
+}
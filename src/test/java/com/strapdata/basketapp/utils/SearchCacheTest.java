@@ -0,0 +1,102 @@
+package com.strapdata.basketapp.utils;
+
+import com.google.common.collect.Lists;
+import com.strapdata.basketapp.config.SearchCacheConfiguration;
+import com.strapdata.basketapp.model.Basket;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchCacheTest {
+
+    static final long REFRESH_WINDOW = 2000;
+
+    final AtomicLong clock = new AtomicLong(1_000_000);
+    final AtomicLong searchableSince = new AtomicLong(0);
+
+    SearchCache searchCache(int maxStores) {
+        SearchCacheConfiguration config = new SearchCacheConfiguration();
+        config.ttl = Duration.ofHours(1);
+        config.maxStores = maxStores;
+        return new SearchCache(config, REFRESH_WINDOW, searchableSince::get, clock::get);
+    }
+
+    static List<Basket> result(String storeCode) {
+        return Lists.newArrayList(new Basket().withId(UUID.randomUUID()).withStoreCode(storeCode));
+    }
+
+    @Test
+    public void testInvalidation() {
+        SearchCache cache = searchCache(100);
+        List<Basket> result = result("1");
+        cache.put("1", "q1", cache.startSearch(), result);
+        cache.put(null, "any", cache.startSearch(), result);
+        assertEquals(result, cache.get("q1"));
+        assertEquals(result, cache.get("any"));
+
+        // a write invalidates the searches of its store and the searches without store filter
+        cache.put("2", "q2", cache.startSearch(), result("2"));
+        cache.invalidateBasket(new Basket().withStoreCode("1"));
+        assertNull(cache.get("q1"));
+        assertNull(cache.get("any"));
+        assertTrue(cache.get("q2") != null);
+        assertTrue(!cache.queriesByStore.containsKey("1"));
+    }
+
+    @Test
+    public void testRefreshWindow() {
+        SearchCache cache = searchCache(100);
+
+        // a search started before a write completes with the previous result
+        long searchStart = cache.startSearch();
+        cache.invalidateStore("1");
+        cache.put("1", "q1", searchStart, result("1"));
+        assertNull(cache.get("q1"));
+
+        // the write is not searchable before the next refresh
+        clock.addAndGet(REFRESH_WINDOW / 2);
+        cache.put("1", "q1", cache.startSearch(), result("1"));
+        assertNull(cache.get("q1"));
+
+        clock.addAndGet(REFRESH_WINDOW);
+        cache.put("1", "q1", cache.startSearch(), result("1"));
+        assertTrue(cache.get("q1") != null);
+    }
+
+    @Test
+    public void testEvictedStoreWrites() {
+        SearchCache cache = searchCache(1);
+        cache.invalidateStore("1");
+        cache.invalidateStore("2");
+
+        // the write of an evicted store still prevents caching within the refresh window
+        clock.addAndGet(REFRESH_WINDOW / 2);
+        cache.put("1", "q1", cache.startSearch(), result("1"));
+        assertNull(cache.get("q1"));
+        assertTrue(cache.lastWrites.size() <= 1);
+    }
+
+    @Test
+    public void testBulkLoad() {
+        SearchCache cache = searchCache(100);
+        long searchStart = cache.startSearch();
+        searchableSince.set(Long.MAX_VALUE);
+        cache.put("1", "q1", searchStart, result("1"));
+        assertNull(cache.get("q1"));
+
+        // refresh restored after the search started
+        clock.addAndGet(1);
+        searchableSince.set(clock.get());
+        cache.put("1", "q1", searchStart, result("1"));
+        assertNull(cache.get("q1"));
+        cache.put("1", "q1", cache.startSearch(), result("1"));
+        assertTrue(cache.get("q1") != null);
+    }
+}
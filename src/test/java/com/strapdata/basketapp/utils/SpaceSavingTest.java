@@ -0,0 +1,33 @@
+package com.strapdata.basketapp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void testHeavyHitters() {
+        SpaceSaving topK = new SpaceSaving(10);
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        for (int i = 0; i < 10_000; i++) {
+            String item = (i % 2 == 0) ? "heavy" : (i % 3 == 0) ? "medium" : "light" + i;
+            topK.add(item, 1);
+            sketch.add(item, 1);
+        }
+
+        List<SpaceSaving.Counter> top = topK.top(2);
+        assertEquals("heavy", top.get(0).getItem());
+        assertEquals("medium", top.get(1).getItem());
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 5000);
+        assertTrue(sketch.estimate("heavy") >= 5000);
+
+        sketch.decay(0.5);
+        topK.decay(0.5);
+        assertTrue(sketch.estimate("heavy") >= 2500);
+        assertEquals("heavy", topK.top(1).get(0).getItem());
+    }
+}